@@ -0,0 +1,63 @@
+package sudoku;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * MaskKernel on the Vector API: each step works on as many cells or units
+ * as the preferred species has long lanes (4 with AVX2, 8 with AVX-512),
+ * gathering the masks of rows, columns and blocks through the index tables.
+ * Lanes left over at the end go through the scalar loops.
+ *
+ * This class is kept out of src because it needs the incubating
+ * jdk.incubator.vector module, which javac and java only see when given
+ * --add-modules jdk.incubator.vector. DirectSolver loads it by name and
+ * falls back to ScalarMaskKernel when it is missing.
+ */
+final class VectorMaskKernel implements MaskKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    public void candidates(long[] used, int[] rowOf, int[] columnOf, int[] blockOf,
+            long[] blank, long[] cands, int numCells) {
+        int bound = SPECIES.loopBound(numCells);
+        for (int c = 0; c < bound; c += SPECIES.length()) {
+            LongVector taken = LongVector.fromArray(SPECIES, used, 0, rowOf, c)
+                    .or(LongVector.fromArray(SPECIES, used, 0, columnOf, c))
+                    .or(LongVector.fromArray(SPECIES, used, 0, blockOf, c));
+            LongVector.fromArray(SPECIES, blank, c)
+                    .lanewise(VectorOperators.AND_NOT, taken)
+                    .intoArray(cands, c);
+        }
+        for (int c = bound; c < numCells; c++) {
+            cands[c] = blank[c] & ~(used[rowOf[c]] | used[columnOf[c]] | used[blockOf[c]]);
+        }
+    }
+
+    public void summarize(long[] cands, int[] byPosition, int numUnits, int size,
+            long[] once, long[] twice) {
+        int bound = SPECIES.loopBound(numUnits);
+        for (int u = 0; u < bound; u += SPECIES.length()) {
+            LongVector o = LongVector.zero(SPECIES);
+            LongVector t = o;
+            for (int p = 0; p < size; p++) {
+                LongVector m = LongVector.fromArray(SPECIES, cands, 0, byPosition, p * numUnits + u);
+                t = t.or(o.and(m));
+                o = o.or(m);
+            }
+            o.intoArray(once, u);
+            t.intoArray(twice, u);
+        }
+        for (int u = bound; u < numUnits; u++) {
+            long o = 0;
+            long t = 0;
+            for (int p = 0; p < size; p++) {
+                long m = cands[byPosition[p * numUnits + u]];
+                t |= o & m;
+                o |= m;
+            }
+            once[u] = o;
+            twice[u] = t;
+        }
+    }
+}
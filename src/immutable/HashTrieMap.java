@@ -0,0 +1,253 @@
+package immutable;
+
+/**
+ * Implementation of immutable generic map using a hash array mapped trie. See
+ * ImMap for specification. get and put take O(log32 n) time, and put shares
+ * all unchanged nodes with the original map. Keys must implement hashCode
+ * consistently with equals.
+ *
+ * See Bagwell, "Ideal Hash Trees".
+ */
+public class HashTrieMap<K, V> implements ImMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /*
+     * Rep invariant: root != null, size >= 0, size is the number of bindings
+     * in root, no key or value is null, no key is bound twice.
+     *
+     * Abstraction function: the bindings stored in the leaves of root.
+     */
+    private final Node root;
+    private final int size;
+
+    void checkRep() {
+        assert root != null : "HashTrieMap, Rep invariant: root non-null";
+        assert size >= 0 : "HashTrieMap, Rep invariant: size non-negative";
+    }
+
+    public HashTrieMap() {
+        this(BitmapNode.EMPTY, 0);
+    }
+
+    private HashTrieMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+        checkRep();
+    }
+
+    public boolean containsKey(Object k) {
+        return get(k) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object k) {
+        return (V) root.get(hash(k), 0, k);
+    }
+
+    public ImMap<K, V> put(K key, V value) {
+        assert key != null : "HashTrieMap.put(null, _)";
+        assert value != null : "HashTrieMap.put(_, null)";
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(hash(key), 0, key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new HashTrieMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        root.append(s);
+        return s.append("]").toString();
+    }
+
+    // spread the high bits down, since only 5 bits are used per level
+    private static int hash(Object k) {
+        int h = k.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static abstract class Node {
+        /**
+         * @return value bound to key in this node, or null
+         */
+        abstract Object get(int hash, int shift, Object key);
+
+        /**
+         * @return this node with key bound to value, or this itself if the
+         *         binding is already present. added[0] is set to true if key
+         *         was not bound before.
+         */
+        abstract Node put(int hash, int shift, Object key, Object value, boolean[] added);
+
+        /**
+         * Append the bindings of this node to s, separated by ", ".
+         */
+        abstract void append(StringBuilder s);
+    }
+
+    /*
+     * A node with up to 32 slots, of which those whose bit is set in bitmap
+     * are present, compacted into entries: slot i is at 2 * bitCount(bitmap
+     * below bit i). A slot holds either a key and its value, or null and a
+     * child node for all keys that share this prefix of their hash.
+     */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] entries;
+
+        BitmapNode(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+
+        Object get(int hash, int shift, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = entries[i];
+            if (k == null) {
+                return ((Node) entries[i + 1]).get(hash, shift + BITS, key);
+            }
+            return key.equals(k) ? entries[i + 1] : null;
+        }
+
+        Node put(int hash, int shift, Object key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                // free slot: insert the binding here
+                Object[] grown = new Object[entries.length + 2];
+                System.arraycopy(entries, 0, grown, 0, i);
+                grown[i] = key;
+                grown[i + 1] = value;
+                System.arraycopy(entries, i, grown, i + 2, entries.length - i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, grown);
+            }
+            Object k = entries[i];
+            Object v = entries[i + 1];
+            Node child;
+            if (k == null) {
+                Node oldChild = (Node) v;
+                child = oldChild.put(hash, shift + BITS, key, value, added);
+                if (child == oldChild) {
+                    return this;
+                }
+            } else if (key.equals(k)) {
+                if (value == v) {
+                    return this;
+                }
+                return replace(i, k, value);
+            } else {
+                // two keys in one slot: push both down a level
+                added[0] = true;
+                child = pair(hash(k), k, v, hash, key, value, shift + BITS);
+            }
+            return replace(i, null, child);
+        }
+
+        private BitmapNode replace(int i, Object key, Object value) {
+            Object[] copy = entries.clone();
+            copy[i] = key;
+            copy[i + 1] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        void append(StringBuilder s) {
+            for (int i = 0; i < entries.length; i += 2) {
+                if (entries[i] == null) {
+                    ((Node) entries[i + 1]).append(s);
+                } else {
+                    HashTrieMap.append(s, entries[i], entries[i + 1]);
+                }
+            }
+        }
+    }
+
+    /*
+     * Bindings for keys whose hashes are all equal, once every bit of the
+     * hash has been used.
+     */
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] entries;
+
+        CollisionNode(int hash, Object[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+
+        Object get(int hash, int shift, Object key) {
+            for (int i = 0; i < entries.length; i += 2) {
+                if (key.equals(entries[i])) {
+                    return entries[i + 1];
+                }
+            }
+            return null;
+        }
+
+        Node put(int hash, int shift, Object key, Object value, boolean[] added) {
+            for (int i = 0; i < entries.length; i += 2) {
+                if (key.equals(entries[i])) {
+                    if (value == entries[i + 1]) {
+                        return this;
+                    }
+                    Object[] copy = entries.clone();
+                    copy[i + 1] = value;
+                    return new CollisionNode(hash, copy);
+                }
+            }
+            Object[] grown = new Object[entries.length + 2];
+            System.arraycopy(entries, 0, grown, 0, entries.length);
+            grown[entries.length] = key;
+            grown[entries.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, grown);
+        }
+
+        void append(StringBuilder s) {
+            for (int i = 0; i < entries.length; i += 2) {
+                HashTrieMap.append(s, entries[i], entries[i + 1]);
+            }
+        }
+    }
+
+    // a node holding two bindings with distinct keys
+    private static Node pair(int hash1, Object key1, Object value1,
+            int hash2, Object key2, Object value2, int shift) {
+        if (shift >= 32) {
+            return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+        }
+        int frag1 = (hash1 >>> shift) & MASK;
+        int frag2 = (hash2 >>> shift) & MASK;
+        if (frag1 == frag2) {
+            Node child = pair(hash1, key1, value1, hash2, key2, value2, shift + BITS);
+            return new BitmapNode(1 << frag1, new Object[] { null, child });
+        }
+        Object[] entries = (frag1 < frag2)
+                ? new Object[] { key1, value1, key2, value2 }
+                : new Object[] { key2, value2, key1, value1 };
+        return new BitmapNode((1 << frag1) | (1 << frag2), entries);
+    }
+
+    private static void append(StringBuilder s, Object key, Object value) {
+        if (s.length() > 1) {
+            s.append(", ");
+        }
+        s.append(key).append("->").append(value);
+    }
+}
@@ -0,0 +1,56 @@
+package immutable;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HashTrieMapTest {
+    // make sure assertions are turned on!
+    // we don't want to run test cases without assertions too.
+    // see the handout to find out how to turn them on.
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false;
+    }
+
+    @Test
+    public void putGetTest() {
+        ImMap<Integer, String> m = new HashTrieMap<Integer, String>();
+        for (int i = 0; i < 5000; i++) {
+            m = m.put(i, "v" + i);
+        }
+        assertEquals(5000, m.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("v" + i, m.get(i));
+        }
+        assertNull(m.get(5000));
+        assertFalse(m.containsKey(-1));
+    }
+
+    @Test
+    public void immutableTest() {
+        ImMap<String, Integer> empty = new HashTrieMap<String, Integer>();
+        ImMap<String, Integer> one = empty.put("a", 1);
+        ImMap<String, Integer> two = one.put("a", 2);
+
+        assertTrue(empty.isEmpty());
+        assertEquals(Integer.valueOf(1), one.get("a"));
+        assertEquals(Integer.valueOf(2), two.get("a"));
+        assertEquals(1, two.size());
+    }
+
+    @Test
+    public void collisionTest() {
+        // "Aa" and "BB" have the same hashCode
+        ImMap<String, Integer> m = new HashTrieMap<String, Integer>();
+        m = m.put("Aa", 1).put("BB", 2).put("AaAa", 3).put("BBBB", 4).put("AaBB", 5);
+        assertEquals(5, m.size());
+        assertEquals(Integer.valueOf(1), m.get("Aa"));
+        assertEquals(Integer.valueOf(2), m.get("BB"));
+        assertEquals(Integer.valueOf(5), m.get("AaBB"));
+        m = m.put("BB", 6);
+        assertEquals(5, m.size());
+        assertEquals(Integer.valueOf(6), m.get("BB"));
+        assertNull(m.get("BBAa"));
+    }
+}
@@ -0,0 +1,416 @@
+package sat;
+
+import java.util.Arrays;
+
+/**
+ * Propagator for an all-different constraint inside a Solver: cells that
+ * each take one of a set of values, cell c taking value d when the literal
+ * lits[c][d] is true, and no two cells taking the same value. That each
+ * cell takes exactly one value is left to clauses.
+ *
+ * The filtering is Regin's. A maximum matching of cells to the values they
+ * can still take (those whose literal is not false) is kept from one call to
+ * the next and repaired by augmenting paths. If some cell cannot be matched,
+ * the constraint fails; otherwise every literal whose edge belongs to no
+ * maximum matching is made false. Those edges are found from the strongly
+ * connected components of the residual graph, with edges from cells to
+ * their unmatched values and from values to their matched cells.
+ *
+ * Both outcomes come with an explanation clause, for conflict analysis: a
+ * set S of cells whose remaining values V are fewer than S (a failure), or
+ * exactly as many (so no cell outside S can take a value of V). The clause
+ * is made of the literals lits[s][e] with s in S and e not in V, all false,
+ * plus the negation of the removed literal; literals false at level 0 are
+ * left out. When there are as many cells as values, every value is taken,
+ * so a set of values W that only the cells T can take explains as well
+ * that the cells of T take no other value; of the two, the shorter
+ * explanation is used. For a digit with a single square left in a Sudoku
+ * row, that is just the other squares of the row not holding it.
+ *
+ * See Regin, "A filtering algorithm for constraints of difference in CSPs".
+ */
+class AllDifferent {
+    private final int numCells;
+    private final int numValues;
+    // lits[c][d], or -1 where cell c can never take value d
+    private final int[][] lits;
+    // the matching: cellMatch[c] is the value of cell c or -1, and
+    // valueMatch[d] the cell of value d or -1
+    private final int[] cellMatch;
+    private final int[] valueMatch;
+    // nodes of the residual graph are cells 0..numCells, then values;
+    // seen[u] == stamp marks the nodes found by the last search, and
+    // back[u] == backStamp those found by the last backward search
+    private final int[] seen;
+    private int stamp;
+    private final int[] back;
+    private int backStamp;
+    private final int[] queue;
+    private final int[] parent;
+    private final int[] index;
+    private final int[] low;
+    private final int[] component;
+    private final int[] stack;
+    private final boolean[] onStack;
+    private final int[] callNode;
+    private final int[] callEdge;
+    private final boolean[] reachesFree;
+    // results of the last call to propagate
+    private int[] implied;
+    private int[][] explanations;
+    private int numImplied;
+    private int[] conflict;
+    private final int[] buffer;
+    private final int[] backBuffer;
+    // Rep invariant:
+    //      numCells <= numValues, and every row of lits has numValues entries
+    //      cellMatch[c] == d iff valueMatch[d] == c, for d != -1
+
+    /**
+     * Requires lits to have at most as many rows as columns, with rows of
+     * equal length.
+     */
+    AllDifferent(int[][] lits) {
+        this.lits = lits;
+        numCells = lits.length;
+        numValues = numCells == 0 ? 0 : lits[0].length;
+        cellMatch = new int[numCells];
+        valueMatch = new int[numValues];
+        Arrays.fill(cellMatch, -1);
+        Arrays.fill(valueMatch, -1);
+        int numNodes = numCells + numValues;
+        seen = new int[numNodes];
+        back = new int[numNodes];
+        queue = new int[numNodes];
+        parent = new int[numValues];
+        index = new int[numNodes];
+        low = new int[numNodes];
+        component = new int[numNodes];
+        stack = new int[numNodes];
+        onStack = new boolean[numNodes];
+        callNode = new int[numNodes];
+        callEdge = new int[numNodes];
+        reachesFree = new boolean[numValues];
+        implied = new int[numCells * numValues];
+        explanations = new int[numCells * numValues][];
+        buffer = new int[numCells * numValues + 1];
+        backBuffer = new int[numCells * numValues + 1];
+    }
+
+    /**
+     * @return the literals of this constraint, with -1 for missing ones
+     */
+    int[][] literals() {
+        return lits;
+    }
+
+    /**
+     * Replace each literal by representatives[lit].
+     */
+    void substitute(int[] representatives) {
+        for (int[] row : lits) {
+            for (int d = 0; d < numValues; d++) {
+                if (row[d] >= 0) {
+                    row[d] = representatives[row[d]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Filter the values of the cells under the assignment values (indexed
+     * by literal, -1 for false), as in Solver.
+     *
+     * @return true if the constraint can still be satisfied, in which case
+     *         the literals to make true are available from implied(i) for
+     *         i < numImplied(), with their explanations; otherwise false,
+     *         and getConflict() is a clause whose literals are all false
+     */
+    boolean propagate(byte[] values, int[] levels) {
+        numImplied = 0;
+        conflict = null;
+        for (int c = 0; c < numCells; c++) {
+            int d = cellMatch[c];
+            if (d != -1 && !possible(values, c, d)) {
+                cellMatch[c] = -1;
+                valueMatch[d] = -1;
+            }
+        }
+        for (int c = 0; c < numCells; c++) {
+            if (cellMatch[c] == -1 && !augment(values, c)) {
+                // the cells reached from c have fewer values than cells
+                conflict = Arrays.copyOf(buffer, explain(levels, seen, stamp, true, -1, buffer));
+                return false;
+            }
+        }
+        components(values);
+        markFree(values);
+        for (int d = 0; d < numValues; d++) {
+            if (reachesFree[d]) {
+                continue;
+            }
+            boolean reached = false;
+            for (int c = 0; c < numCells; c++) {
+                if (cellMatch[c] == d || !possible(values, c, d)
+                        || component[c] == component[numCells + d]) {
+                    continue;
+                }
+                if (!reached) {
+                    // the cells and values reachable from d form a Hall set
+                    reach(values, d);
+                    reached = true;
+                }
+                int p = lits[c][d] ^ 1;
+                int size = explain(levels, seen, stamp, true, p, buffer);
+                int[] explanation;
+                if (numCells == numValues) {
+                    // the values that can reach c are only taken by cells
+                    // that reach c
+                    reachBack(values, c);
+                    int backSize = explain(levels, back, backStamp, false, p, backBuffer);
+                    explanation = backSize < size ? Arrays.copyOf(backBuffer, backSize)
+                            : Arrays.copyOf(buffer, size);
+                } else {
+                    explanation = Arrays.copyOf(buffer, size);
+                }
+                implied[numImplied] = p;
+                explanations[numImplied++] = explanation;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of literals implied by the last call to propagate
+     */
+    int numImplied() {
+        return numImplied;
+    }
+
+    /**
+     * @return the ith literal implied by the last call to propagate
+     */
+    int implied(int i) {
+        return implied[i];
+    }
+
+    /**
+     * @return the explanation of implied(i): a clause with implied(i) in
+     *         position 0 and every other literal false
+     */
+    int[] explanation(int i) {
+        return explanations[i];
+    }
+
+    /**
+     * @return the clause explaining why the last call to propagate failed
+     */
+    int[] getConflict() {
+        return conflict;
+    }
+
+    private boolean possible(byte[] values, int c, int d) {
+        int lit = lits[c][d];
+        return lit >= 0 && values[lit] != Solver.FALSE;
+    }
+
+    /*
+     * Breadth-first search for an alternating path from the unmatched cell
+     * start to a free value, flipping it if found. Leaves the cells and
+     * values visited marked with the current stamp.
+     */
+    private boolean augment(byte[] values, int start) {
+        stamp++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        seen[start] = stamp;
+        while (head < tail) {
+            int c = queue[head++];
+            for (int d = 0; d < numValues; d++) {
+                if (seen[numCells + d] == stamp || !possible(values, c, d)) {
+                    continue;
+                }
+                seen[numCells + d] = stamp;
+                parent[d] = c;
+                int next = valueMatch[d];
+                if (next == -1) {
+                    while (d != -1) {
+                        int owner = parent[d];
+                        int previous = cellMatch[owner];
+                        cellMatch[owner] = d;
+                        valueMatch[d] = owner;
+                        d = previous;
+                    }
+                    return true;
+                }
+                seen[next] = stamp;
+                queue[tail++] = next;
+            }
+        }
+        return false;
+    }
+
+    // mark the cells and values reachable from value start in the residual
+    // graph with the current stamp
+    private void reach(byte[] values, int start) {
+        stamp++;
+        int head = 0;
+        int tail = 0;
+        seen[numCells + start] = stamp;
+        queue[tail++] = valueMatch[start];
+        seen[valueMatch[start]] = stamp;
+        while (head < tail) {
+            int c = queue[head++];
+            for (int d = 0; d < numValues; d++) {
+                if (seen[numCells + d] == stamp || !possible(values, c, d)) {
+                    continue;
+                }
+                seen[numCells + d] = stamp;
+                seen[valueMatch[d]] = stamp;
+                queue[tail++] = valueMatch[d];
+            }
+        }
+    }
+
+    // mark the cells and values from which cell target can be reached in
+    // the residual graph with backStamp, in back
+    private void reachBack(byte[] values, int target) {
+        backStamp++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = target;
+        back[target] = backStamp;
+        while (head < tail) {
+            int d = cellMatch[queue[head++]];
+            back[numCells + d] = backStamp;
+            for (int c = 0; c < numCells; c++) {
+                if (back[c] != backStamp && possible(values, c, d)) {
+                    back[c] = backStamp;
+                    queue[tail++] = c;
+                }
+            }
+        }
+    }
+
+    /*
+     * Write to out the clause of first, unless it is -1, followed by the
+     * literals lits[s][e] above level 0 with marks[s] == mark and e not
+     * marked (or, if cellsMarked is false, with e marked and s not).
+     * Returns the size of the clause.
+     */
+    private int explain(int[] levels, int[] marks, int mark, boolean cellsMarked, int first, int[] out) {
+        int size = 0;
+        if (first != -1) {
+            out[size++] = first;
+        }
+        for (int s = 0; s < numCells; s++) {
+            if ((marks[s] == mark) != cellsMarked) {
+                continue;
+            }
+            for (int e = 0; e < numValues; e++) {
+                int lit = lits[s][e];
+                if (lit >= 0 && (marks[numCells + e] == mark) != cellsMarked && levels[lit >> 1] > 0) {
+                    out[size++] = lit;
+                }
+            }
+        }
+        return size;
+    }
+
+    /*
+     * Tarjan's algorithm over the residual graph, run iteratively. Cell c
+     * has an edge to each value it can take other than its own, and each
+     * matched value to its cell.
+     */
+    private void components(byte[] values) {
+        int numNodes = numCells + numValues;
+        Arrays.fill(index, 0);
+        int counter = 1;
+        int stackSize = 0;
+        for (int root = 0; root < numNodes; root++) {
+            if (index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int u = callNode[depth];
+                int w = successor(values, u, depth);
+                if (w != -1) {
+                    if (index[w] == 0) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = 0;
+                    } else if (onStack[w] && index[w] < low[u]) {
+                        low[u] = index[w];
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth >= 0 && low[u] < low[callNode[depth]]) {
+                    low[callNode[depth]] = low[u];
+                }
+                if (low[u] == index[u]) {
+                    int w2;
+                    do {
+                        w2 = stack[--stackSize];
+                        onStack[w2] = false;
+                        component[w2] = u;
+                    } while (w2 != u);
+                }
+            }
+        }
+    }
+
+    // the next successor of node u, advancing callEdge[depth], or -1
+    private int successor(byte[] values, int u, int depth) {
+        if (u >= numCells) {
+            // a free value has no successor
+            return callEdge[depth]++ == 0 ? valueMatch[u - numCells] : -1;
+        }
+        while (callEdge[depth] < numValues) {
+            int d = callEdge[depth]++;
+            if (d != cellMatch[u] && possible(values, u, d)) {
+                return numCells + d;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Mark the values from which an alternating path leads to a free value:
+     * any of their edges can be swapped into a maximum matching along it.
+     */
+    private void markFree(byte[] values) {
+        Arrays.fill(reachesFree, false);
+        if (numCells == numValues) {
+            return;
+        }
+        int tail = 0;
+        for (int d = 0; d < numValues; d++) {
+            if (valueMatch[d] == -1) {
+                reachesFree[d] = true;
+                queue[tail++] = d;
+            }
+        }
+        int head = 0;
+        while (head < tail) {
+            int d = queue[head++];
+            for (int c = 0; c < numCells; c++) {
+                int e = cellMatch[c];
+                if (e != d && !reachesFree[e] && possible(values, c, d)) {
+                    reachesFree[e] = true;
+                    queue[tail++] = e;
+                }
+            }
+        }
+    }
+}
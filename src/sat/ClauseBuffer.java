@@ -0,0 +1,394 @@
+package sat;
+
+import sat.formula.Formula;
+
+/**
+ * A ClauseBuffer collects int clauses, back to back in one growable array,
+ * for one part of a problem that is encoded on its own, typically on its own
+ * thread; ClauseStore.merge then gathers the buffers of all parts into a
+ * store. Literals are encoded as in ClauseStore.
+ *
+ * The variables of a buffer are those below firstAux, numbered the same in
+ * every buffer of the problem, and the auxiliary variables made by fresh(),
+ * numbered from firstAux up within each buffer and renumbered when the
+ * buffers are merged.
+ *
+ * The cardinality constraints are encoded here, over int literals and
+ * without building any objects, in every Formula.Encoding. The builders of
+ * Formula go through a ClauseBuffer too, so both write the same clauses.
+ * Clauses can also be taken out one at a time, in the order they were added,
+ * so that a buffer can be reused for one part after another of a problem
+ * that is streamed rather than merged. Not safe for use by several threads
+ * at once.
+ *
+ * References: Sinz, "Towards an optimal CNF encoding of Boolean cardinality
+ * constraints" (sequential counter); Klieber and Kwon, "Efficient CNF encoding
+ * for selecting 1 from N objects" (commander); Chen, "A new SAT encoding of
+ * the at-most-one constraint" (product); Nguyen and Mai, "A new method to
+ * encode the at-most-one constraint into SAT" (bimander).
+ */
+public class ClauseBuffer {
+    // group size for the commander and bimander encodings
+    private static final int GROUP_SIZE = 3;
+    // below this many literals, recursive encodings fall back to pairwise
+    private static final int PAIRWISE_LIMIT = 6;
+
+    private int firstAux;
+    private int[] data;
+    private int size;
+    private int numClauses;
+    private int numAux;
+    // start of the first clause not yet taken by poll()
+    private int head;
+    // Rep invariant:
+    //      data[0..size) holds numClauses clauses, each as its length n
+    //      followed by its n literals
+    //      head is 0, size or the start of one of those clauses
+    //      every literal is below 2*(firstAux + numAux)
+
+    /**
+     * Create an empty buffer whose auxiliary variables are numbered from
+     * firstAux.
+     */
+    public ClauseBuffer(int firstAux) {
+        this.firstAux = firstAux;
+        data = new int[64];
+    }
+
+    /**
+     * Remove all clauses, and number the auxiliary variables made from now on
+     * from firstAux.
+     */
+    public void clear(int firstAux) {
+        this.firstAux = firstAux;
+        size = numClauses = numAux = head = 0;
+    }
+
+    /**
+     * @return the positive literal of a new auxiliary variable
+     */
+    public int fresh() {
+        return 2 * (firstAux + numAux++);
+    }
+
+    /**
+     * Add the clause made of the first length literals of lits.
+     */
+    public void addClause(int[] lits, int length) {
+        ensure(length + 1);
+        data[size++] = length;
+        System.arraycopy(lits, 0, data, size, length);
+        size += length;
+        numClauses++;
+    }
+
+    /**
+     * Add a clause.
+     */
+    public void addClause(int... lits) {
+        addClause(lits, lits.length);
+    }
+
+    /**
+     * Add clauses requiring exactly one of the first length literals of lits
+     * to be true, as Formula.exactlyOne does. lits is not modified.
+     */
+    public void exactlyOne(int[] lits, int length, Formula.Encoding encoding) {
+        atMostOne(lits, length, encoding);
+        addClause(lits, length);
+    }
+
+    /**
+     * Add clauses requiring at most one of the first length literals of lits
+     * to be true, as Formula.atMostOne does. lits is not modified.
+     */
+    public void atMostOne(int[] lits, int length, Formula.Encoding encoding) {
+        if (length <= 1) {
+            return;
+        }
+        switch (encoding) {
+        case SEQUENTIAL:
+            sequential(lits, length);
+            break;
+        case COMMANDER:
+            commander(lits, 0, length);
+            break;
+        case PRODUCT:
+            product(lits, 0, length);
+            break;
+        case BIMANDER:
+            bimander(lits, length);
+            break;
+        default:
+            pairwise(lits, 0, length);
+            break;
+        }
+    }
+
+    /**
+     * Add clauses requiring at most k of the first length literals of lits
+     * to be true, as Formula.atMostK does. Requires k >= 0. lits is not
+     * modified.
+     */
+    public void atMostK(int[] lits, int length, int k, Formula.Encoding encoding) {
+        if (k >= length) {
+            return;
+        }
+        if (k == 0) {
+            for (int i = 0; i < length; i++) {
+                addClause(lits[i] ^ 1);
+            }
+        } else if (k == 1) {
+            atMostOne(lits, length, encoding);
+        } else if (encoding == Formula.Encoding.PAIRWISE) {
+            // one clause per subset of k+1 literals: forbid all being true
+            subsets(lits, length, new int[k + 1], 0, 0);
+        } else {
+            sequentialCounter(lits, length, k);
+        }
+    }
+
+    // (~xi + ~xj) for every pair of lits[from..to)
+    private void pairwise(int[] lits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            for (int j = i + 1; j < to; j++) {
+                addBinary(lits[i] ^ 1, lits[j] ^ 1);
+            }
+        }
+    }
+
+    // s_i means "one of x_1..x_i is true"
+    private void sequential(int[] lits, int n) {
+        int previous = fresh();
+        addBinary(lits[0] ^ 1, previous);
+        for (int i = 1; i < n - 1; i++) {
+            int x = lits[i];
+            int s = fresh();
+            addBinary(x ^ 1, s);
+            addBinary(previous ^ 1, s);
+            addBinary(x ^ 1, previous ^ 1);
+            previous = s;
+        }
+        addBinary(lits[n - 1] ^ 1, previous ^ 1);
+    }
+
+    // each group of lits[from..to) has a commander that is true when any
+    // member is; at most one member per group, and at most one commander
+    // overall
+    private void commander(int[] lits, int from, int to) {
+        if (to - from <= PAIRWISE_LIMIT) {
+            pairwise(lits, from, to);
+            return;
+        }
+        int[] commanders = new int[(to - from + GROUP_SIZE - 1) / GROUP_SIZE];
+        for (int g = 0; g < commanders.length; g++) {
+            int start = from + g * GROUP_SIZE;
+            int end = Math.min(start + GROUP_SIZE, to);
+            int c = fresh();
+            commanders[g] = c;
+            pairwise(lits, start, end);
+            for (int i = start; i < end; i++) {
+                addBinary(lits[i] ^ 1, c);
+            }
+        }
+        commander(commanders, 0, commanders.length);
+    }
+
+    // literals are laid out on a p x q grid; a true literal selects its row
+    // and its column, and at most one row and one column may be selected
+    private void product(int[] lits, int from, int to) {
+        int n = to - from;
+        if (n <= PAIRWISE_LIMIT) {
+            pairwise(lits, from, to);
+            return;
+        }
+        int p = (int) Math.ceil(Math.sqrt(n));
+        int q = (n + p - 1) / p;
+        int[] lines = new int[p + q];
+        for (int i = 0; i < p + q; i++) {
+            lines[i] = fresh();
+        }
+        for (int i = 0; i < n; i++) {
+            int nx = lits[from + i] ^ 1;
+            addBinary(nx, lines[i / q]);
+            addBinary(nx, lines[p + i % q]);
+        }
+        product(lines, 0, p);
+        product(lines, p, p + q);
+    }
+
+    // at most one member per group, and a true member forces the binary
+    // representation of its group number on the shared bits
+    private void bimander(int[] lits, int n) {
+        if (n <= PAIRWISE_LIMIT) {
+            pairwise(lits, 0, n);
+            return;
+        }
+        int groups = (n + GROUP_SIZE - 1) / GROUP_SIZE;
+        int[] bits = new int[bimanderWidth(groups)];
+        for (int b = 0; b < bits.length; b++) {
+            bits[b] = fresh();
+        }
+        for (int g = 0; g < groups; g++) {
+            int start = g * GROUP_SIZE;
+            int end = Math.min(start + GROUP_SIZE, n);
+            pairwise(lits, start, end);
+            for (int i = start; i < end; i++) {
+                for (int b = 0; b < bits.length; b++) {
+                    addBinary(lits[i] ^ 1, ((g >> b) & 1) == 1 ? bits[b] : bits[b] ^ 1);
+                }
+            }
+        }
+    }
+
+    // s[i*k + j] means "at least j+1 of x_1..x_i+1 are true"
+    private void sequentialCounter(int[] lits, int n, int k) {
+        int[] s = new int[(n - 1) * k];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = fresh();
+        }
+        addBinary(lits[0] ^ 1, s[0]);
+        for (int j = 1; j < k; j++) {
+            addClause(s[j] ^ 1);
+        }
+        for (int i = 1; i < n - 1; i++) {
+            int nx = lits[i] ^ 1;
+            int row = i * k;
+            int above = row - k;
+            addBinary(nx, s[row]);
+            addBinary(s[above] ^ 1, s[row]);
+            for (int j = 1; j < k; j++) {
+                addClause(nx, s[above + j - 1] ^ 1, s[row + j]);
+                addBinary(s[above + j] ^ 1, s[row + j]);
+            }
+            addBinary(nx, s[above + k - 1] ^ 1);
+        }
+        addBinary(lits[n - 1] ^ 1, s[(n - 2) * k + k - 1] ^ 1);
+    }
+
+    // the negations of every subset of lits[from..length) with
+    // prefix.length - depth members, after those in prefix[0..depth)
+    private void subsets(int[] lits, int length, int[] prefix, int depth, int from) {
+        if (depth == prefix.length) {
+            addClause(prefix, depth);
+            return;
+        }
+        for (int i = from; i <= length - (prefix.length - depth); i++) {
+            prefix[depth] = lits[i] ^ 1;
+            subsets(lits, length, prefix, depth + 1, i + 1);
+        }
+    }
+
+    /**
+     * @return the number of auxiliary variables that atMostOne, and so
+     *         exactlyOne, makes for length literals under encoding
+     */
+    public static int auxVariables(int length, Formula.Encoding encoding) {
+        if (length <= 1) {
+            return 0;
+        }
+        switch (encoding) {
+        case SEQUENTIAL:
+            return length - 1;
+        case COMMANDER:
+            return commanderAux(length);
+        case PRODUCT:
+            return productAux(length);
+        case BIMANDER:
+            return length <= PAIRWISE_LIMIT ? 0
+                    : bimanderWidth((length + GROUP_SIZE - 1) / GROUP_SIZE);
+        default:
+            return 0;
+        }
+    }
+
+    private static int commanderAux(int n) {
+        if (n <= PAIRWISE_LIMIT) {
+            return 0;
+        }
+        int groups = (n + GROUP_SIZE - 1) / GROUP_SIZE;
+        return groups + commanderAux(groups);
+    }
+
+    private static int productAux(int n) {
+        if (n <= PAIRWISE_LIMIT) {
+            return 0;
+        }
+        int p = (int) Math.ceil(Math.sqrt(n));
+        int q = (n + p - 1) / p;
+        return p + q + productAux(p) + productAux(q);
+    }
+
+    // number of bits to tell that many groups apart
+    private static int bimanderWidth(int groups) {
+        return 32 - Integer.numberOfLeadingZeros(groups - 1);
+    }
+
+    /**
+     * Take out the oldest clause not taken yet.
+     * 
+     * @return its literals, in a new array, or null if every clause added
+     *         since the last clear() has been taken
+     */
+    public int[] poll() {
+        if (head == size) {
+            return null;
+        }
+        int length = data[head];
+        int[] clause = new int[length];
+        System.arraycopy(data, head + 1, clause, 0, length);
+        head += length + 1;
+        return clause;
+    }
+
+    /**
+     * @return true iff poll() would return a clause
+     */
+    public boolean hasNext() {
+        return head < size;
+    }
+
+    private void addBinary(int a, int b) {
+        ensure(3);
+        data[size++] = 2;
+        data[size++] = a;
+        data[size++] = b;
+        numClauses++;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > data.length) {
+            int[] grown = new int[Math.max(2 * data.length, size + extra)];
+            System.arraycopy(data, 0, grown, 0, size);
+            data = grown;
+        }
+    }
+
+    /**
+     * @return number of clauses in this buffer
+     */
+    public int numClauses() {
+        return numClauses;
+    }
+
+    /**
+     * @return number of auxiliary variables made by fresh()
+     */
+    public int numAux() {
+        return numAux;
+    }
+
+    int firstAux() {
+        return firstAux;
+    }
+
+    // clauses, as lengths each followed by that many literals, in
+    // data()[0..dataSize())
+    int[] data() {
+        return data;
+    }
+
+    int dataSize() {
+        return size;
+    }
+}
@@ -0,0 +1,368 @@
+package sat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import sat.env.Environment;
+import sat.env.Variable;
+import sat.env.VariableRegistry;
+import sat.formula.Clause;
+import sat.formula.Expr;
+import sat.formula.Formula;
+import sat.formula.Literal;
+
+/**
+ * A ClauseStore is a compact representation of a CNF problem, intended to be
+ * loaded into a solving engine. Variables are numbered densely from 0 and
+ * clauses are stored back to back in a single int arena.
+ *
+ * Clauses are kept in canonical form, as sorted arrays of distinct literals,
+ * and the store is a set: adding a clause that is already present, or one
+ * that contains a literal and its negation, leaves the store unchanged.
+ *
+ * Literals are encoded as ints: variable v is represented by 2v when positive
+ * and by 2v+1 when negated, so that (lit ^ 1) is the negation of lit and
+ * (lit >> 1) is its variable.
+ */
+public class ClauseStore {
+    private Variable[] variables;
+    private int numVariables;
+    private final Map<Variable, Integer> ids;
+    private int[] arena;
+    private int arenaSize;
+    private int[] starts;
+    private int numClauses;
+    // hash of each clause, and an open-addressing table of clause indexes
+    // plus one (0 for a free slot), at most half full
+    private int[] hashes;
+    private int[] table;
+    private int[] scratch;
+    // Rep invariant:
+    //      variables[0..numVariables) are non-null and distinct
+    //      ids maps variables[v] to v, and has no other keys
+    //      starts[0] == 0, starts is non-decreasing on [0..numClauses]
+    //      starts[numClauses] == arenaSize
+    //      every int in arena[0..arenaSize) is in [0..2*numVariables)
+    //      the literals of each clause are sorted and distinct, and do not
+    //      include a literal and its negation; no two clauses are equal
+    //      hashes[i] == hash of clause i, and table holds i+1 for every i
+    //
+    // Abstraction function:
+    //      clause i is the disjunction of the literals
+    //      arena[starts[i]], ..., arena[starts[i+1]-1]
+
+    /**
+     * Create an empty store, with no variables and no clauses.
+     */
+    public ClauseStore() {
+        variables = new Variable[16];
+        ids = new HashMap<Variable, Integer>();
+        arena = new int[64];
+        starts = new int[17];
+        hashes = new int[16];
+        table = new int[32];
+        scratch = new int[8];
+    }
+
+    /**
+     * @return a store containing the clauses of formula
+     */
+    public static ClauseStore fromFormula(Formula formula) {
+        ClauseStore store = new ClauseStore();
+        int[] buffer = new int[8];
+        for (Clause clause : formula) {
+            if (buffer.length < clause.size()) {
+                buffer = new int[clause.size() * 2];
+            }
+            int n = 0;
+            for (Literal l : clause) {
+                buffer[n++] = store.literal(l);
+            }
+            store.addClause(buffer, n);
+        }
+        return store;
+    }
+
+    /**
+     * @return a store containing clauses that are satisfiable iff expr is,
+     *         obtained by the Plaisted-Greenbaum transformation (see Tseitin).
+     *         Its models, restricted to the variables of expr, are models
+     *         of expr.
+     */
+    public static ClauseStore fromExpr(Expr expr) {
+        ClauseStore store = new ClauseStore();
+        Tseitin.clausify(expr, store);
+        return store;
+    }
+
+    /**
+     * @return a store whose variables are variables[0], variables[1], ...
+     *         with ids 0, 1, ..., followed by the auxiliary variables of
+     *         each buffer in turn, and whose clauses are those of the buffers,
+     *         in order. Auxiliary variables are named "_aux" followed by
+     *         their number in the store. Requires variables to be distinct,
+     *         and the firstAux of every buffer to be variables.length.
+     */
+    public static ClauseStore merge(Variable[] variables, ClauseBuffer... buffers) {
+        ClauseStore store = new ClauseStore();
+        for (Variable v : variables) {
+            store.variable(v);
+        }
+        int numClauses = 0;
+        int numInts = 0;
+        for (ClauseBuffer buffer : buffers) {
+            numClauses += buffer.numClauses();
+            numInts += buffer.dataSize();
+        }
+        store.reserve(numClauses, numInts - numClauses);
+
+        VariableRegistry aux = new VariableRegistry("_aux");
+        int[] clause = new int[8];
+        for (ClauseBuffer buffer : buffers) {
+            // auxiliary literals move up by the variables added before them
+            int firstAux = 2 * buffer.firstAux();
+            int shift = 2 * (store.numVariables - buffer.firstAux());
+            for (int a = 0; a < buffer.numAux(); a++) {
+                store.variable(aux.fresh());
+            }
+            int[] data = buffer.data();
+            int end = buffer.dataSize();
+            for (int i = 0; i < end; i += data[i] + 1) {
+                int length = data[i];
+                if (clause.length < length) {
+                    clause = new int[2 * length];
+                }
+                for (int k = 0; k < length; k++) {
+                    int lit = data[i + 1 + k];
+                    clause[k] = lit < firstAux ? lit : lit + shift;
+                }
+                store.addClause(clause, length);
+            }
+        }
+        return store;
+    }
+
+    // grow the arrays to hold that many more clauses and literals at once
+    private void reserve(int clauses, int literals) {
+        if (arenaSize + literals > arena.length) {
+            arena = Arrays.copyOf(arena, arenaSize + literals);
+        }
+        if (numClauses + clauses + 1 > starts.length) {
+            starts = Arrays.copyOf(starts, numClauses + clauses + 1);
+        }
+        if (numClauses + clauses > hashes.length) {
+            hashes = Arrays.copyOf(hashes, numClauses + clauses);
+        }
+        int slots = table.length;
+        while (slots < 2 * (numClauses + clauses) + 2) {
+            slots *= 2;
+        }
+        if (slots > table.length) {
+            rehash(slots);
+        }
+    }
+
+    /**
+     * @return the id of v, allocating a fresh one if v has not been seen yet
+     */
+    public int variable(Variable v) {
+        Integer id = ids.get(v);
+        if (id != null) {
+            return id;
+        }
+        if (numVariables == variables.length) {
+            Variable[] grown = new Variable[variables.length * 2];
+            System.arraycopy(variables, 0, grown, 0, numVariables);
+            variables = grown;
+        }
+        variables[numVariables] = v;
+        ids.put(v, numVariables);
+        return numVariables++;
+    }
+
+    /**
+     * @return the int encoding of l, allocating its variable if needed
+     */
+    public int literal(Literal l) {
+        int v = variable(l.getVariable());
+        return l.isPositive() ? 2 * v : 2 * v + 1;
+    }
+
+    /**
+     * @return the variable with the given id. Requires 0 <= id < numVariables()
+     */
+    public Variable getVariable(int id) {
+        return variables[id];
+    }
+
+    /**
+     * @return an environment binding each variable of this store to its
+     *         value in model. Requires model.length >= numVariables()
+     */
+    public Environment environment(boolean[] model) {
+        Variable[] vs = new Variable[numVariables];
+        boolean[] values = new boolean[numVariables];
+        System.arraycopy(variables, 0, vs, 0, numVariables);
+        System.arraycopy(model, 0, values, 0, numVariables);
+        return Environment.fromModel(vs, values);
+    }
+
+    /**
+     * Add the clause made of the first length literals of lits, unless it is
+     * already present or always true. lits is not modified.
+     * Requires that every literal was obtained from this store.
+     * 
+     * @return true if the clause was added
+     */
+    public boolean addClause(int[] lits, int length) {
+        length = canonicalize(lits, length);
+        if (length < 0) {
+            return false;
+        }
+        int hash = hash(scratch, length);
+        int slot = find(scratch, length, hash);
+        if (table[slot] != 0) {
+            return false;
+        }
+        if (arenaSize + length > arena.length) {
+            int[] grown = new int[Math.max(arena.length * 2, arenaSize + length)];
+            System.arraycopy(arena, 0, grown, 0, arenaSize);
+            arena = grown;
+        }
+        if (numClauses + 2 > starts.length) {
+            int[] grown = new int[starts.length * 2];
+            System.arraycopy(starts, 0, grown, 0, numClauses + 1);
+            starts = grown;
+        }
+        if (numClauses == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        System.arraycopy(scratch, 0, arena, arenaSize, length);
+        arenaSize += length;
+        hashes[numClauses] = hash;
+        table[slot] = numClauses + 1;
+        starts[++numClauses] = arenaSize;
+        if (2 * numClauses > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Add a clause, unless it is already present or always true.
+     * Requires that every literal was obtained from this store.
+     * 
+     * @return true if the clause was added
+     */
+    public boolean addClause(int... lits) {
+        return addClause(lits, lits.length);
+    }
+
+    /**
+     * @return true iff this store contains the clause made of the first
+     *         length literals of lits, in any order
+     */
+    public boolean containsClause(int[] lits, int length) {
+        length = canonicalize(lits, length);
+        return length >= 0 && table[find(scratch, length, hash(scratch, length))] != 0;
+    }
+
+    // copy lits[0..length) to scratch, sorted and without duplicates
+    // @return the number of distinct literals, or -1 if lits is a tautology
+    private int canonicalize(int[] lits, int length) {
+        if (scratch.length < length) {
+            scratch = new int[2 * length];
+        }
+        System.arraycopy(lits, 0, scratch, 0, length);
+        Arrays.sort(scratch, 0, length);
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            int lit = scratch[i];
+            if (n > 0 && scratch[n - 1] == lit) {
+                continue;
+            }
+            // lit and its negation are adjacent once sorted
+            if (n > 0 && scratch[n - 1] == (lit ^ 1)) {
+                return -1;
+            }
+            scratch[n++] = lit;
+        }
+        return n;
+    }
+
+    private static int hash(int[] lits, int length) {
+        int h = length;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + lits[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // the slot of table holding the clause lits[0..length), or the free
+    // slot where it would go
+    private int find(int[] lits, int length, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0 || (hashes[entry - 1] == hash && sameClause(entry - 1, lits, length))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean sameClause(int i, int[] lits, int length) {
+        int start = starts[i];
+        if (starts[i + 1] - start != length) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (arena[start + k] != lits[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int length) {
+        table = new int[length];
+        int mask = table.length - 1;
+        for (int i = 0; i < numClauses; i++) {
+            int slot = hashes[i] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @return number of variables in this store
+     */
+    public int numVariables() {
+        return numVariables;
+    }
+
+    /**
+     * @return number of clauses in this store
+     */
+    public int numClauses() {
+        return numClauses;
+    }
+
+    /**
+     * @return number of literals in clause i
+     */
+    public int clauseSize(int i) {
+        return starts[i + 1] - starts[i];
+    }
+
+    /**
+     * @return the literals of clause i, as a fresh array
+     */
+    public int[] clause(int i) {
+        int[] lits = new int[clauseSize(i)];
+        System.arraycopy(arena, starts[i], lits, 0, lits.length);
+        return lits;
+    }
+}
@@ -0,0 +1,180 @@
+package sat;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import sat.env.Variable;
+import sat.formula.Clause;
+import sat.formula.Formula;
+import sat.formula.Literal;
+import sat.formula.PosLiteral;
+
+public class ClauseStoreTest {
+    // make sure assertions are turned on!
+    // we don't want to run test cases without assertions too.
+    // see the handout to find out how to turn them on.
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false;
+    }
+
+    @Test
+    public void canonicalClauseTest() {
+        // literals are sorted and duplicates dropped
+        ClauseStore store = store(4);
+        assertTrue(store.addClause(6, 2, 2, 5));
+        assertArrayEquals(new int[] { 2, 5, 6 }, store.clause(0));
+    }
+
+    @Test
+    public void duplicateClauseTest() {
+        // the same clause in another order is not added again
+        ClauseStore store = store(2);
+        assertTrue(store.addClause(0, 3));
+        assertFalse(store.addClause(3, 0));
+        assertTrue(store.addClause(0, 2));
+        assertEquals(2, store.numClauses());
+        assertTrue(store.containsClause(new int[] { 3, 0 }, 2));
+        assertFalse(store.containsClause(new int[] { 1, 3 }, 2));
+    }
+
+    @Test
+    public void tautologyTest() {
+        // (a + ~a + b) is always true
+        ClauseStore store = store(2);
+        assertFalse(store.addClause(0, 2, 1));
+        assertEquals(0, store.numClauses());
+        assertTrue(store.addClause(new int[0]));
+        assertFalse(store.addClause(new int[0]));
+    }
+
+    @Test
+    public void manyClausesTest() {
+        // every pair over 100 variables, each added twice
+        ClauseStore store = store(100);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 200; i += 2) {
+                for (int j = i + 2; j < 200; j += 2) {
+                    store.addClause(j + 1, i + 1);
+                }
+            }
+        }
+        assertEquals(100 * 99 / 2, store.numClauses());
+    }
+
+    @Test
+    public void fromFormulaTest() {
+        // (a + b)(b + a)(a): the repeated clause is stored once
+        Literal a = PosLiteral.make("a");
+        Literal b = PosLiteral.make("b");
+        Formula formula = new Formula(new Clause(a).add(b)).addClause(new Clause(b).add(a)).addClause(new Clause(a));
+        assertEquals(3, formula.getSize());
+        assertEquals(2, ClauseStore.fromFormula(formula).numClauses());
+    }
+
+    @Test
+    public void mergeTest() {
+        // variables 0..2 are shared; each buffer's auxiliary variable 3 gets
+        // an id of its own, after those of the buffers before it
+        ClauseBuffer first = new ClauseBuffer(3);
+        int s = first.fresh();
+        first.addClause(0, s);
+        ClauseBuffer second = new ClauseBuffer(3);
+        int t = second.fresh();
+        second.addClause(t ^ 1, 2, 4);
+        second.addClause(0, s);
+        Variable[] vars = { new Variable("a"), new Variable("b"), new Variable("c") };
+        ClauseStore store = ClauseStore.merge(vars, first, second);
+
+        assertEquals(5, store.numVariables());
+        assertEquals(3, store.numClauses());
+        assertEquals(vars[1], store.getVariable(1));
+        assertArrayEquals(new int[] { 0, 6 }, store.clause(0));
+        assertArrayEquals(new int[] { 2, 4, 9 }, store.clause(1));
+        assertArrayEquals(new int[] { 0, 8 }, store.clause(2));
+    }
+
+    @Test
+    public void bufferEncodingsTest() {
+        // the same clauses, auxiliary variables included, as Formula makes
+        for (Formula.Encoding encoding : Formula.Encoding.values()) {
+            List<Literal> literals = new ArrayList<Literal>();
+            int[] lits = new int[40];
+            Variable[] vars = new Variable[40];
+            for (int i = 0; i < 40; i++) {
+                vars[i] = new Variable("x" + i);
+                literals.add(PosLiteral.make(vars[i]));
+                lits[i] = 2 * i;
+            }
+            ClauseBuffer buffer = new ClauseBuffer(40);
+            buffer.exactlyOne(lits, 40, encoding);
+            ClauseStore merged = ClauseStore.merge(vars, buffer);
+            ClauseStore expected = ClauseStore.fromFormula(Formula.exactlyOne(literals, encoding));
+
+            assertEquals(expected.numVariables(), merged.numVariables());
+            assertEquals(expected.numClauses(), merged.numClauses());
+            assertEquals(ClauseBuffer.auxVariables(40, encoding), buffer.numAux());
+        }
+    }
+
+    @Test
+    public void bufferEncodingsBruteForceTest() {
+        // projected onto the inputs, each encoding allows exactly the
+        // assignments with at most one true input, and the encodings of at
+        // most two those with at most two; 8 inputs are enough to get past
+        // the pairwise fallback of the recursive encodings
+        int[] lits = new int[8];
+        for (int i = 0; i < 8; i++) {
+            lits[i] = 2 * i;
+        }
+        for (Formula.Encoding encoding : Formula.Encoding.values()) {
+            for (int k = 1; k <= 2; k++) {
+                int n = k == 1 ? 8 : 6;
+                ClauseBuffer buffer = new ClauseBuffer(n);
+                buffer.atMostK(lits, n, k, encoding);
+                boolean[] allowed = projectedModels(buffer, n);
+                for (int m = 0; m < 1 << n; m++) {
+                    assertEquals(encoding + " " + Integer.toBinaryString(m), Integer.bitCount(m) <= k,
+                            allowed[m]);
+                }
+            }
+        }
+    }
+
+    // allowed[m] is true iff some assignment of the auxiliary variables of
+    // buffer, together with the assignment of its first n variables whose
+    // bits are those of m, satisfies all its clauses
+    private boolean[] projectedModels(ClauseBuffer buffer, int n) {
+        List<int[]> clauses = new ArrayList<int[]>();
+        for (int[] clause = buffer.poll(); clause != null; clause = buffer.poll()) {
+            clauses.add(clause);
+        }
+        boolean[] allowed = new boolean[1 << n];
+        for (long m = 0; m < 1L << (n + buffer.numAux()); m++) {
+            boolean satisfied = true;
+            for (int c = 0; c < clauses.size() && satisfied; c++) {
+                satisfied = false;
+                for (int lit : clauses.get(c)) {
+                    satisfied |= ((m >> (lit >> 1)) & 1) != (lit & 1);
+                }
+            }
+            if (satisfied) {
+                allowed[(int) (m & ((1 << n) - 1))] = true;
+            }
+        }
+        return allowed;
+    }
+
+    // a store with n variables and no clauses
+    private ClauseStore store(int n) {
+        ClauseStore store = new ClauseStore();
+        for (int i = 0; i < n; i++) {
+            store.variable(new Variable("x" + i));
+        }
+        return store;
+    }
+}
@@ -0,0 +1,228 @@
+package sat;
+
+import java.util.SplittableRandom;
+
+import sat.env.Environment;
+import sat.formula.Formula;
+
+/**
+ * A probSAT stochastic local search over the clauses of a ClauseStore. It
+ * starts from a random assignment and repeatedly picks a falsified clause at
+ * random and flips one of its variables, chosen with a probability that
+ * falls off with the number of clauses the flip would falsify (its break
+ * count).
+ *
+ * Local search can only find models: it never proves a formula
+ * unsatisfiable. It is often much faster than systematic search on easy
+ * satisfiable formulas, such as completing a Sudoku grid from few givens.
+ *
+ * See Balint and Schoening, "Choosing probability distributions for
+ * stochastic local search and the role of make versus break".
+ */
+public class LocalSearch {
+    // polynomial break distribution: weight = (EPS + break)^-CB
+    private static final double EPS = 1.0;
+    private static final double CB = 2.3;
+    private static final int MAX_CACHED_BREAK = 64;
+
+    private final int numVariables;
+    private final int numClauses;
+    // clause i is lits[starts[i] .. starts[i+1])
+    private final int[] lits;
+    private final int[] starts;
+    // occurrences[occStarts[lit] .. occStarts[lit+1]) are the clauses containing lit
+    private final int[] occurrences;
+    private final int[] occStarts;
+    private final boolean[] assignment;
+    // number of true literals in each clause, and the xor of their variables,
+    // which is the only true variable when there is just one
+    private final int[] numTrue;
+    private final int[] trueXor;
+    // number of clauses in which each variable is the only true one
+    private final int[] breakCount;
+    // falsified clauses, with unsatPositions[c] the index of c in unsat
+    private final int[] unsat;
+    private final int[] unsatPositions;
+    private int numUnsat;
+    private final double[] weights;
+    private final double[] breakWeights;
+    private final SplittableRandom random;
+    private final boolean hasEmptyClause;
+    private long flips;
+
+    /**
+     * Create a search over the clauses of store, seeded so that runs are
+     * reproducible. Later changes to store are not seen by the search.
+     */
+    public LocalSearch(ClauseStore store, long seed) {
+        numVariables = store.numVariables();
+        numClauses = store.numClauses();
+        starts = new int[numClauses + 1];
+        int numLiterals = 0;
+        int maxSize = 0;
+        boolean empty = false;
+        for (int i = 0; i < numClauses; i++) {
+            int size = store.clauseSize(i);
+            numLiterals += size;
+            maxSize = Math.max(maxSize, size);
+            empty |= size == 0;
+            starts[i + 1] = numLiterals;
+        }
+        hasEmptyClause = empty;
+        lits = new int[numLiterals];
+        occStarts = new int[2 * numVariables + 1];
+        for (int i = 0; i < numClauses; i++) {
+            int[] c = store.clause(i);
+            System.arraycopy(c, 0, lits, starts[i], c.length);
+            for (int lit : c) {
+                occStarts[lit + 1]++;
+            }
+        }
+        for (int l = 0; l < 2 * numVariables; l++) {
+            occStarts[l + 1] += occStarts[l];
+        }
+        occurrences = new int[numLiterals];
+        int[] fill = occStarts.clone();
+        for (int i = 0; i < numClauses; i++) {
+            for (int k = starts[i]; k < starts[i + 1]; k++) {
+                occurrences[fill[lits[k]]++] = i;
+            }
+        }
+        assignment = new boolean[numVariables];
+        numTrue = new int[numClauses];
+        trueXor = new int[numClauses];
+        breakCount = new int[numVariables];
+        unsat = new int[numClauses];
+        unsatPositions = new int[numClauses];
+        weights = new double[maxSize];
+        breakWeights = new double[MAX_CACHED_BREAK];
+        for (int b = 0; b < MAX_CACHED_BREAK; b++) {
+            breakWeights[b] = Math.pow(EPS + b, -CB);
+        }
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Search from a fresh random assignment.
+     *
+     * @param maxFlips
+     *            number of flips after which to give up
+     * @return a model indexed by variable id, or null if none was found
+     *         within maxFlips flips
+     */
+    public boolean[] search(long maxFlips) {
+        if (hasEmptyClause) {
+            return null;
+        }
+        for (int v = 0; v < numVariables; v++) {
+            assignment[v] = random.nextBoolean();
+        }
+        initialize();
+        for (long flip = 0; flip < maxFlips && numUnsat > 0; flip++) {
+            int c = unsat[random.nextInt(numUnsat)];
+            int start = starts[c];
+            int size = starts[c + 1] - start;
+            double sum = 0;
+            for (int k = 0; k < size; k++) {
+                int b = breakCount[lits[start + k] >> 1];
+                weights[k] = b < MAX_CACHED_BREAK ? breakWeights[b] : Math.pow(EPS + b, -CB);
+                sum += weights[k];
+            }
+            double r = random.nextDouble() * sum;
+            int chosen = size - 1;
+            for (int k = 0; k < size - 1; k++) {
+                r -= weights[k];
+                if (r <= 0) {
+                    chosen = k;
+                    break;
+                }
+            }
+            flip(lits[start + chosen] >> 1);
+        }
+        return numUnsat == 0 ? assignment.clone() : null;
+    }
+
+    /**
+     * @return total number of flips made so far
+     */
+    public long getFlips() {
+        return flips;
+    }
+
+    /**
+     * Search for a model of formula with probSAT.
+     *
+     * @param seed
+     *            seed for the random choices
+     * @param maxFlips
+     *            number of flips after which to give up
+     * @return an environment for which formula evaluates to Bool.TRUE, in the
+     *         same form as SATSolver.solve, or null if none was found. A null
+     *         result does not mean that formula is unsatisfiable.
+     */
+    public static Environment solve(Formula formula, long seed, long maxFlips) {
+        ClauseStore store = ClauseStore.fromFormula(formula);
+        boolean[] model = new LocalSearch(store, seed).search(maxFlips);
+        return model == null ? null : store.environment(model);
+    }
+
+    // recompute all counters from scratch for the current assignment
+    private void initialize() {
+        numUnsat = 0;
+        for (int v = 0; v < numVariables; v++) {
+            breakCount[v] = 0;
+        }
+        for (int c = 0; c < numClauses; c++) {
+            int count = 0;
+            int xor = 0;
+            for (int k = starts[c]; k < starts[c + 1]; k++) {
+                int lit = lits[k];
+                if (assignment[lit >> 1] == ((lit & 1) == 0)) {
+                    count++;
+                    xor ^= lit >> 1;
+                }
+            }
+            numTrue[c] = count;
+            trueXor[c] = xor;
+            if (count == 0) {
+                unsatPositions[c] = numUnsat;
+                unsat[numUnsat++] = c;
+            } else if (count == 1) {
+                breakCount[xor]++;
+            }
+        }
+    }
+
+    private void flip(int v) {
+        flips++;
+        assignment[v] = !assignment[v];
+        int madeTrue = assignment[v] ? 2 * v : 2 * v + 1;
+        int madeFalse = madeTrue ^ 1;
+        for (int k = occStarts[madeTrue]; k < occStarts[madeTrue + 1]; k++) {
+            int c = occurrences[k];
+            int count = numTrue[c]++;
+            trueXor[c] ^= v;
+            if (count == 0) {
+                int last = unsat[--numUnsat];
+                unsat[unsatPositions[c]] = last;
+                unsatPositions[last] = unsatPositions[c];
+                breakCount[v]++;
+            } else if (count == 1) {
+                // the previously critical variable is no longer alone
+                breakCount[trueXor[c] ^ v]--;
+            }
+        }
+        for (int k = occStarts[madeFalse]; k < occStarts[madeFalse + 1]; k++) {
+            int c = occurrences[k];
+            int count = --numTrue[c];
+            trueXor[c] ^= v;
+            if (count == 0) {
+                unsatPositions[c] = numUnsat;
+                unsat[numUnsat++] = c;
+                breakCount[v]--;
+            } else if (count == 1) {
+                breakCount[trueXor[c]]++;
+            }
+        }
+    }
+}
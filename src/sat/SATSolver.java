@@ -1,119 +1,116 @@
 package sat;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 
-import immutable.Empty;
-import immutable.ImList;
 import sat.env.Environment;
-import sat.env.Variable;
-import sat.formula.Clause;
+import sat.formula.Expr;
 import sat.formula.Formula;
 import sat.formula.Literal;
 
 /**
- * A simple DPLL SAT solver. See http://en.wikipedia.org/wiki/DPLL_algorithm
+ * A SAT solver. See http://en.wikipedia.org/wiki/DPLL_algorithm and
+ * http://en.wikipedia.org/wiki/Conflict-Driven_Clause_Learning
  */
 public class SATSolver {
+    // time allowed for failed-literal probing before search, in nanoseconds
+    private static final long PROBE_BUDGET = 50000000L;
+
     /**
-     * Solve the problem using a simple version of DPLL with backtracking and
-     * unit propagation. The returned environment binds literals of class
-     * bool.Variable rather than the special literals used in clausification of
-     * class clausal.Literal, so that clients can more readily use it.
+     * Solve the problem using conflict-driven clause learning with unit
+     * propagation, after a short failed-literal probing pass. The search
+     * works on a dense array assignment with an undo trail, and the returned
+     * environment is built once from the final model. It binds literals of
+     * class bool.Variable rather than the special literals used in
+     * clausification of class clausal.Literal, so that clients can more
+     * readily use it.
      * 
      * @return an environment for which the problem evaluates to Bool.TRUE, or
      *         null if no such environment exists.
      */
     public static Environment solve(Formula formula) {
-        Environment guess = new Environment();    
-        return solve(formula.getClauses(),guess);
+        return solve(ClauseStore.fromFormula(formula));
     }
 
     /**
-     * Takes a partial assignment of variables to values, and recursively
-     * searches for a complete satisfying assignment.
+     * Solve an expression that need not be in conjunctive normal form. It is
+     * first turned into clauses of linear size with auxiliary variables (see
+     * ClauseStore.fromExpr), which are bound in the returned environment
+     * along with the variables of expr.
      * 
-     * @param clauses
-     *            formula in conjunctive normal form
-     * @param env
-     *            assignment of some or all variables in clauses to true or
-     *            false values.
-     * @return an environment for which all the clauses evaluate to Bool.TRUE,
-     *         or null if no such environment exists.
+     * @return an environment for which expr evaluates to true, or null if no
+     *         such environment exists.
      */
-    private static Environment solve(ImList<Clause> clauses, Environment env) {        
-        if(clauses.isEmpty()) return env;
-        
-        // pick Clause with fewest literals
-        Iterator<Clause> clauseIterator = clauses.iterator();
-        Clause minClause = clauseIterator.next();
-        int minSize = minClause.size();        
-        while(clauseIterator.hasNext()){    
-            Clause iterClause = clauseIterator.next();
-            if(iterClause.size() <= minSize){
-               minSize = iterClause.size();
-               minClause = iterClause;
-            }
-        }
-        
-        //System.out.println(minClause.toString());
-        // if the minclause is empty, return null        
-        if(minClause.isEmpty()) return null;      
-        
-        // choose variable
-        Literal literal = minClause.chooseLiteral();
-        Variable variable = literal.getVariable();       
-        
-        // Find assignment which makes literal true
-        Environment env2 = (literal.isPositive()) ? env.putTrue(variable) : env.putFalse(variable);
+    public static Environment solve(Expr expr) {
+        return solve(ClauseStore.fromExpr(expr));
+    }
 
-        // single literal case
-        if(minClause.isUnit()){
-            return solve(substitute(clauses,literal),env2);
+    private static Environment solve(ClauseStore store) {
+        boolean[] model = solveModel(store);
+        return model == null ? null : store.environment(model);
+    }
+
+    /**
+     * Solve the clauses of a store as solve(Formula) does, without building
+     * an environment: the result is indexed by variable id, so that clients
+     * which know the ids of their variables can read it directly.
+     * 
+     * @return the value of each variable of store, by id, in an assignment
+     *         that satisfies every clause, or null if there is none.
+     */
+    public static boolean[] solveModel(ClauseStore store) {
+        Solver solver = new Solver(store);
+        if (!solver.probe(PROBE_BUDGET) || !solver.solve()) {
+            return null;
         }
-        
-        // Multi-literal case
-        Environment answer = solve(substitute(clauses,literal),env2);
-       
-        // we found an answer!
-        if(answer != null) return answer;
-        
-        // oops! guess not.... try setting literal to false
-        Environment env3 = (literal.isPositive()) ? env.putFalse(variable) : env.putTrue(variable);       
-       
-        // recurse
-        return solve(substitute(clauses,literal.getNegation()),env3);            
+        return solver.getModel();
     }
 
     /**
-     * given a list of clauses and a literal, produce a new list resulting from
-     * setting that literal to true
+     * Find out why a formula cannot be satisfied together with a set of
+     * assumed literals.
      * 
-     * @param clauses
-     *            a list of clauses
-     * @param l
-     *            a literal to set to true
-     * @return a new list of clauses resulting from setting l to true
+     * @param formula
+     *            formula in conjunctive normal form
+     * @param assumptions
+     *            literals assumed to be true
+     * @param minimize
+     *            if true, shrink the core until no literal can be dropped from
+     *            it; otherwise return the core found by conflict analysis,
+     *            which is usually small but not necessarily minimal
+     * @return null if formula can be satisfied with every literal of
+     *         assumptions true; otherwise the assumptions, in their original
+     *         order, that formula cannot satisfy together. The list is empty
+     *         if formula is unsatisfiable on its own.
      */
-    private static ImList<Clause> substitute(ImList<Clause> clauses,
-            Literal l) {     
-       
-        // check if Clauses is empty
-        if(clauses.isEmpty()){
-            return clauses;
-        }     
-  
-        
-        // Find clauses which have literal in them and remove them (since they're equal to 1 now)
-        ImList<Clause> reducedClauseList = new Empty<Clause>();
-        for(Clause clause : clauses){
-            Clause reducedClause = clause.reduce(l);
-            if(reducedClause != null){
-                reducedClauseList = reducedClauseList.addToFront(reducedClause);
+    public static List<Literal> unsatCore(Formula formula,
+            List<Literal> assumptions, boolean minimize) {
+        ClauseStore store = ClauseStore.fromFormula(formula);
+        int[] lits = new int[assumptions.size()];
+        for (int i = 0; i < lits.length; i++) {
+            lits[i] = store.literal(assumptions.get(i));
+        }
+        Solver solver = new Solver(store);
+        if (solver.solve(lits)) {
+            return null;
+        }
+        int[] core = solver.getCore();
+        if (minimize) {
+            core = solver.minimizeCore(core);
+        }
+
+        // map the core back to the caller's literals
+        boolean[] inCore = new boolean[2 * store.numVariables()];
+        for (int lit : core) {
+            inCore[lit] = true;
+        }
+        List<Literal> result = new ArrayList<Literal>();
+        for (int i = 0; i < lits.length; i++) {
+            if (inCore[lits[i]]) {
+                result.add(assumptions.get(i));
+                inCore[lits[i]] = false;
             }
         }
-        
-        return reducedClauseList;
-          
+        return result;
     }
-
 }
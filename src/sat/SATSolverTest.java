@@ -2,12 +2,17 @@ package sat;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import sat.env.Bool;
 import sat.env.Environment;
 import sat.env.Variable;
 import sat.formula.Clause;
+import sat.formula.Expr;
+import sat.formula.ExprFactory;
 import sat.formula.Formula;
 import sat.formula.Literal;
 import sat.formula.PosLiteral;
@@ -235,6 +240,84 @@ public class SATSolverTest {
          assertTrue(environmentEqual(expected,solution,variables));     
     }
     
+    @Test
+    public void unsatCoreSatisfiableTest(){
+        // (~a + b) with a assumed: satisfiable, so no core
+        Formula formula = new Formula(new Clause(na).add(b));
+        
+        List<Literal> assumptions = new ArrayList<Literal>();
+        assumptions.add(a);
+        
+        assertNull(SATSolver.unsatCore(formula, assumptions, true));
+    }
+    
+    @Test
+    public void unsatCoreMinimizedTest(){
+        // (~a + b)(~b + ~c) with a, c, d assumed: a and c conflict, d is innocent
+        Formula formula = new Formula(new Clause(na).add(b)).addClause(new Clause(nb).add(nc));
+        
+        List<Literal> assumptions = new ArrayList<Literal>();
+        assumptions.add(a);
+        assumptions.add(d);
+        assumptions.add(c);
+        
+        List<Literal> core = SATSolver.unsatCore(formula, assumptions, true);
+        assertEquals(2, core.size());
+        assertEquals(a, core.get(0));
+        assertEquals(c, core.get(1));
+    }
+    
+    @Test
+    public void unsatCoreFormulaUnsatisfiableTest(){
+        // a~a is unsatisfiable whatever is assumed, so the core is empty
+        Formula formula = new Formula(new Clause(a)).addClause(new Clause(na));
+        
+        List<Literal> assumptions = new ArrayList<Literal>();
+        assumptions.add(b);
+        
+        assertTrue(SATSolver.unsatCore(formula, assumptions, false).isEmpty());
+    }
+    
+    @Test
+    public void exprSolveTest(){
+        // (a & b) | (c & d), with not(c) added: a and b must be true
+        ExprFactory f = new ExprFactory();
+        Expr e = f.and(f.or(f.and(f.var("a"), f.var("b")), f.and(f.var("c"), f.var("d"))), f.not(f.var("c")));
+        
+        Environment env = SATSolver.solve(e);
+        assertEquals(Bool.TRUE, env.get(a.getVariable()));
+        assertEquals(Bool.TRUE, env.get(b.getVariable()));
+        assertEquals(Bool.FALSE, env.get(c.getVariable()));
+    }
+    
+    @Test
+    public void exprUnsatisfiableTest(){
+        // (a <-> b) & (b <-> ~a)
+        ExprFactory f = new ExprFactory();
+        Expr ea = f.var("a");
+        Expr eb = f.var("b");
+        
+        assertNull(SATSolver.solve(f.and(f.iff(ea, eb), f.iff(eb, f.not(ea)))));
+        assertNull(SATSolver.solve(f.constant(false)));
+        assertNotNull(SATSolver.solve(f.constant(true)));
+    }
+    
+    @Test
+    public void exprLinearSizeTest(){
+        // distributing (p0 & q0) | ... | (p99 & q99) would give 2^100
+        // clauses; the transformation needs one per term and operand, plus
+        // the top-level disjunction
+        ExprFactory f = new ExprFactory();
+        List<Expr> terms = new ArrayList<Expr>();
+        for(int i = 0; i < 100; i++)
+            terms.add(f.and(f.var("p" + i), f.var("q" + i)));
+        ClauseStore store = ClauseStore.fromExpr(f.or(terms));
+        
+        assertEquals(300, store.numVariables());
+        assertEquals(201, store.numClauses());
+        assertNotNull(SATSolver.solve(f.or(terms)));
+    }
+    
     /**
      *  private function which compares two Environments to see if they have the same assignments for a set of 
      *  variables
@@ -0,0 +1,1234 @@
+package sat;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * An incremental conflict-driven clause learning solver over the int literals
+ * of a ClauseStore. Unlike SATSolver, a Solver can be called repeatedly with
+ * different assumptions; when the clauses are unsatisfiable under the
+ * assumptions, it reports which of them were responsible.
+ *
+ * See http://minisat.se/downloads/MiniSat.pdf for the general design.
+ */
+public class Solver {
+    private static final byte TRUE = 1;
+    static final byte FALSE = -1;
+    private static final byte UNDEF = 0;
+    private static final int NO_REASON = -1;
+    private static final int NO_CONFLICT = -1;
+    private static final int BINARY_CONFLICT = -2;
+    private static final int CONSTRAINT_CONFLICT = -3;
+    private static final int EXPLAINED = Integer.MIN_VALUE;
+    private static final int NO_LITERAL = -1;
+
+    private final int numVariables;
+    // binary clauses form an implication graph: implications[lit] holds the
+    // literals made true by lit, so (a + b) puts b in implications[a ^ 1] and
+    // a in implications[b ^ 1]
+    private final int[][] implications;
+    private final int[] implicationCount;
+    // representatives[lit] is the literal substituted for lit, which is lit
+    // itself unless lit was found equivalent to a smaller literal
+    private int[] representatives;
+    private int numEquivalent;
+    private int numProbed;
+    // clause database for clauses of 3 or more literals: clauses of the store
+    // first, then learned clauses. the first two literals of each clause are
+    // watched, and a clause that is the reason for an assignment has the
+    // implied literal in position 0.
+    private int[][] clauses;
+    private int numClauses;
+    // watches[lit] holds the indices of the clauses watching lit
+    private final int[][] watches;
+    private final int[] watchCount;
+    // the assignment: values[lit] is TRUE, FALSE or UNDEF, and
+    // values[lit] == -values[lit ^ 1]. assigned literals are pushed on the
+    // trail in order, and trailLims[d] is the trail size when level d+1 was
+    // opened, so undoing a level just pops the trail back to its marker.
+    private final byte[] values;
+    private final int[] levels;
+    // reasons[v] is the index of the clause that implied v, NO_REASON for
+    // decisions and level 0 facts, binaryReason(lit) when v was implied
+    // by the binary clause (v + lit), or EXPLAINED when v was implied by an
+    // all-different constraint, with the clause explanations[v] as reason
+    private final int[] reasons;
+    private final int[][] explanations;
+    private final int[] binaryConflict = new int[2];
+    private final int[] binaryClause = new int[2];
+    private int[] constraintConflict;
+    // all-different constraints, and occurrences[lit] the ones containing
+    // lit. A constraint is queued when one of its literals becomes false,
+    // and run once the clauses have nothing left to propagate.
+    private AllDifferent[] constraints = new AllDifferent[0];
+    private int numConstraints;
+    private int[][] occurrences;
+    private int[] occurrenceCount;
+    private int[] pending = new int[0];
+    private int numPending;
+    private boolean[] queued = new boolean[0];
+    private final int[] trail;
+    private int trailSize;
+    private int qhead;
+    private int[] trailLims;
+    private int decisionLevel;
+    private final boolean[] seen;
+    private final boolean[] phases;
+    private final double[] activity;
+    private double activityInc = 1;
+    private final int[] heap;
+    private final int[] heapIndex;
+    private int heapSize;
+    // false once the clauses are known to be unsatisfiable without assumptions
+    private boolean ok = true;
+    private boolean[] model;
+    private int[] core;
+    private long decisions;
+    private long conflicts;
+    private long propagations;
+
+    /**
+     * Create a solver for the clauses of store. Later changes to store are
+     * not seen by the solver.
+     */
+    public Solver(ClauseStore store) {
+        this(store.numVariables(), store.numClauses());
+        // binary clauses go straight into the implication graph, so that
+        // equivalent literals can be found before the rest is attached
+        int[][] others = new int[store.numClauses()][];
+        int numOthers = 0;
+        for (int i = 0; i < store.numClauses(); i++) {
+            int[] c = store.clause(i);
+            if (c.length == 2) {
+                addBinary(c[0], c[1]);
+            } else {
+                others[numOthers++] = c;
+            }
+        }
+        load(others, numOthers);
+    }
+
+    /**
+     * Create a solver for the clauses of a stream, over variables 0 to
+     * numVariables-1, taking them one at a time without a ClauseStore in
+     * between. The clauses are kept as they come, so that loading a large
+     * problem needs little more memory than the solver itself: the arrays
+     * become the solver's own and must not be changed afterwards. Clauses
+     * are not required to be sorted or free of duplicates. Consumes
+     * clauses, which is not split.
+     *
+     * Requires every literal to be in [0..2*numVariables).
+     */
+    public Solver(int numVariables, Spliterator<int[]> clauses) {
+        this(numVariables, 16);
+        Loader loader = new Loader();
+        clauses.forEachRemaining(loader);
+        load(loader.others, loader.numOthers);
+    }
+
+    // an empty solver over numVariables variables, with room for that many
+    // clauses of 3 or more literals
+    private Solver(int numVariables, int numClauses) {
+        this.numVariables = numVariables;
+        int numLiterals = 2 * numVariables;
+        implications = new int[numLiterals][];
+        implicationCount = new int[numLiterals];
+        clauses = new int[Math.max(16, numClauses)][];
+        watches = new int[numLiterals][];
+        watchCount = new int[numLiterals];
+        for (int l = 0; l < numLiterals; l++) {
+            implications[l] = new int[4];
+            watches[l] = new int[4];
+        }
+        values = new byte[numLiterals];
+        levels = new int[numVariables];
+        reasons = new int[numVariables];
+        explanations = new int[numVariables][];
+        trail = new int[numVariables];
+        trailLims = new int[numVariables + 1];
+        seen = new boolean[numVariables];
+        phases = new boolean[numVariables];
+        activity = new double[numVariables];
+        heap = new int[numVariables];
+        heapIndex = new int[numVariables];
+    }
+
+    // puts the binary clauses of a stream into the implication graph as
+    // they come, and keeps the others for load
+    private class Loader implements Consumer<int[]> {
+        int[][] others = new int[16][];
+        int numOthers;
+
+        public void accept(int[] c) {
+            c = canonical(c);
+            if (c == null) {
+                return;
+            } else if (c.length == 2) {
+                addBinary(c[0], c[1]);
+            } else {
+                if (numOthers == others.length) {
+                    others = Arrays.copyOf(others, 2 * numOthers);
+                }
+                others[numOthers++] = c;
+            }
+        }
+    }
+
+    /*
+     * Finish loading, once the binary clauses are in the implication graph:
+     * find equivalent literals before the rest is attached, then attach
+     * others[0..numOthers), the clauses of any other length.
+     */
+    private void load(int[][] others, int numOthers) {
+        if (findEquivalences() > 0) {
+            resubstitute();
+        }
+        for (int v = 0; v < numVariables; v++) {
+            heapIndex[v] = -1;
+            if (representatives[2 * v] == 2 * v) {
+                heapInsert(v);
+            }
+        }
+        for (int i = 0; i < numOthers && ok; i++) {
+            addInitialClause(numEquivalent > 0 ? substitute(others[i]) : others[i]);
+        }
+    }
+
+    /**
+     * Create a solver in the same state as prototype: same clauses, learned
+     * ones included, same equivalences and facts, and same all-different
+     * constraints. Much cheaper than building a solver from the store
+     * again, as nothing is recomputed; the copy shares no mutable state with
+     * prototype, which is only read, so several threads may copy one
+     * prototype at once as long as none of them uses it otherwise. Counters
+     * such as getDecisions() start from zero.
+     */
+    public Solver(Solver prototype) {
+        numVariables = prototype.numVariables;
+        int numLiterals = 2 * numVariables;
+        implications = new int[numLiterals][];
+        implicationCount = prototype.implicationCount.clone();
+        watches = new int[numLiterals][];
+        watchCount = prototype.watchCount.clone();
+        for (int l = 0; l < numLiterals; l++) {
+            implications[l] = prototype.implications[l].clone();
+            watches[l] = prototype.watches[l].clone();
+        }
+        representatives = prototype.representatives.clone();
+        numEquivalent = prototype.numEquivalent;
+        numProbed = prototype.numProbed;
+        // watching reorders the literals of a clause, so each is copied
+        clauses = new int[prototype.clauses.length][];
+        numClauses = prototype.numClauses;
+        for (int i = 0; i < numClauses; i++) {
+            clauses[i] = prototype.clauses[i].clone();
+        }
+        // a solver is at level 0 between calls to solve, so the trail holds
+        // facts only
+        values = prototype.values.clone();
+        levels = prototype.levels.clone();
+        reasons = prototype.reasons.clone();
+        explanations = prototype.explanations.clone();
+        trail = prototype.trail.clone();
+        trailSize = prototype.trailSize;
+        qhead = prototype.qhead;
+        trailLims = prototype.trailLims.clone();
+        seen = new boolean[numVariables];
+        phases = prototype.phases.clone();
+        activity = prototype.activity.clone();
+        activityInc = prototype.activityInc;
+        heap = prototype.heap.clone();
+        heapIndex = prototype.heapIndex.clone();
+        heapSize = prototype.heapSize;
+        ok = prototype.ok;
+        if (prototype.numConstraints > 0) {
+            constraints = new AllDifferent[prototype.numConstraints];
+            for (int i = 0; i < prototype.numConstraints; i++) {
+                int[][] lits = prototype.constraints[i].literals();
+                int[][] copy = new int[lits.length][];
+                for (int c = 0; c < lits.length; c++) {
+                    copy[c] = lits[c].clone();
+                }
+                constraints[i] = new AllDifferent(copy);
+            }
+            numConstraints = prototype.numConstraints;
+            indexConstraints();
+        }
+    }
+
+    /*
+     * Tarjan's algorithm over the implication graph, run iteratively so deep
+     * graphs don't overflow the stack. Literals in one strongly connected
+     * component imply each other and so are equivalent; each component is
+     * represented by its smallest literal. Since the graph is symmetric, the
+     * component of ~l is the negation of the component of l, and its
+     * smallest literal is the negation of the smallest literal of l's.
+     * Updates representatives and returns the number of variables newly
+     * found equivalent to another.
+     */
+    private int findEquivalences() {
+        int n = 2 * numVariables;
+        int[] rep = new int[n];
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        int stackSize = 0;
+        int counter = 1;
+        for (int root = 0; root < n; root++) {
+            rep[root] = root;
+        }
+        for (int root = 0; root < n; root++) {
+            if (index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int u = callNode[depth];
+                if (callEdge[depth] < implicationCount[u]) {
+                    int w = implications[u][callEdge[depth]++];
+                    if (index[w] == 0) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = 0;
+                    } else if (onStack[w] && index[w] < low[u]) {
+                        low[u] = index[w];
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth >= 0 && low[u] < low[callNode[depth]]) {
+                    low[callNode[depth]] = low[u];
+                }
+                if (low[u] == index[u]) {
+                    int start = stackSize - 1;
+                    int smallest = u;
+                    while (stack[start] != u) {
+                        smallest = Math.min(smallest, stack[start--]);
+                    }
+                    for (int k = start; k < stackSize; k++) {
+                        onStack[stack[k]] = false;
+                        rep[stack[k]] = smallest;
+                    }
+                    stackSize = start;
+                }
+            }
+        }
+        int found = 0;
+        for (int v = 0; v < numVariables; v++) {
+            if (rep[2 * v] == rep[2 * v + 1]) {
+                // v is equivalent to ~v
+                ok = false;
+            } else if (rep[2 * v] != 2 * v) {
+                found++;
+            }
+        }
+        // variables eliminated earlier occur in no clause, so they are in
+        // components of their own; chain them to their new representatives
+        if (representatives != null) {
+            for (int l = 0; l < n; l++) {
+                rep[l] = rep[representatives[l]];
+            }
+        }
+        representatives = rep;
+        numEquivalent += found;
+        return found;
+    }
+
+    /*
+     * Detach every clause and add it back over representatives only. Must be
+     * called at level 0; facts already on the trail are propagated again
+     * against the rewritten clauses.
+     */
+    private void resubstitute() {
+        int n = 2 * numVariables;
+        int[][] edges = new int[n][];
+        int[] counts = implicationCount.clone();
+        for (int l = 0; l < n; l++) {
+            edges[l] = implications[l];
+            implications[l] = new int[4];
+            implicationCount[l] = 0;
+            watchCount[l] = 0;
+        }
+        int[][] old = clauses.clone();
+        int oldCount = numClauses;
+        numClauses = 0;
+        for (int l = 0; l < n && ok; l++) {
+            for (int k = 0; k < counts[l]; k++) {
+                // each clause appears as two edges; keep one of them
+                int q = edges[l][k];
+                if ((l ^ 1) < q) {
+                    addInitialClause(substitute(new int[] { l ^ 1, q }));
+                }
+            }
+        }
+        for (int i = 0; i < oldCount && ok; i++) {
+            addInitialClause(substitute(old[i]));
+        }
+        if (numConstraints > 0) {
+            for (int i = 0; i < numConstraints; i++) {
+                constraints[i].substitute(representatives);
+            }
+            indexConstraints();
+        }
+        qhead = 0;
+    }
+
+    /*
+     * Replace each literal of c by its representative, dropping duplicates.
+     * Returns null if c then contains a literal and its negation, that is,
+     * if c is always true.
+     */
+    private int[] substitute(int[] c) {
+        int[] result = new int[c.length];
+        int size = 0;
+        for (int lit : c) {
+            int r = representatives[lit];
+            boolean duplicate = false;
+            for (int k = 0; k < size; k++) {
+                if (result[k] == r) {
+                    duplicate = true;
+                } else if (result[k] == (r ^ 1)) {
+                    return null;
+                }
+            }
+            if (!duplicate) {
+                result[size++] = r;
+            }
+        }
+        if (size == c.length) {
+            return result;
+        }
+        int[] trimmed = new int[size];
+        System.arraycopy(result, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /*
+     * c itself if its literals are distinct, else c without its duplicates,
+     * or null if c contains a literal and its negation.
+     */
+    private static int[] canonical(int[] c) {
+        for (int i = 1; i < c.length; i++) {
+            for (int k = 0; k < i; k++) {
+                if ((c[k] | 1) == (c[i] | 1)) {
+                    return slowCanonical(c);
+                }
+            }
+        }
+        return c;
+    }
+
+    private static int[] slowCanonical(int[] c) {
+        int[] result = new int[c.length];
+        int size = 0;
+        for (int lit : c) {
+            boolean duplicate = false;
+            for (int k = 0; k < size; k++) {
+                if (result[k] == lit) {
+                    duplicate = true;
+                } else if (result[k] == (lit ^ 1)) {
+                    return null;
+                }
+            }
+            if (!duplicate) {
+                result[size++] = lit;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    // c may be null, meaning the clause is always true
+    private void addInitialClause(int[] c) {
+        if (c == null) {
+            return;
+        } else if (c.length == 0) {
+            ok = false;
+        } else if (c.length == 1) {
+            if (values[c[0]] == FALSE) {
+                ok = false;
+            } else if (values[c[0]] == UNDEF) {
+                assign(c[0], NO_REASON);
+            }
+        } else if (c.length == 2) {
+            addBinary(c[0], c[1]);
+        } else {
+            attach(c);
+        }
+    }
+
+    private void addBinary(int a, int b) {
+        imply(a ^ 1, b);
+        imply(b ^ 1, a);
+    }
+
+    private void imply(int p, int q) {
+        int[] qs = implications[p];
+        if (implicationCount[p] == qs.length) {
+            int[] grown = new int[qs.length * 2];
+            System.arraycopy(qs, 0, grown, 0, qs.length);
+            implications[p] = qs = grown;
+        }
+        qs[implicationCount[p]++] = q;
+    }
+
+    private static int binaryReason(int lit) {
+        return -2 - lit;
+    }
+
+    /*
+     * The clause that implied the literal p, with p in position 0.
+     * Requires that reasons[p >> 1] is not NO_REASON.
+     */
+    private int[] reasonClause(int p) {
+        int r = reasons[p >> 1];
+        if (r >= 0) {
+            return clauses[r];
+        } else if (r == EXPLAINED) {
+            return explanations[p >> 1];
+        }
+        binaryClause[0] = p;
+        binaryClause[1] = -2 - r;
+        return binaryClause;
+    }
+
+    /**
+     * Add the constraint that no two of the cells lits[0], lits[1], ... take
+     * the same value, where cell c takes value d when the literal lits[c][d]
+     * is true, and lits[c][d] is -1 if cell c cannot take value d. The
+     * clauses must say that each cell takes exactly one value. The
+     * constraint is propagated as a whole (see AllDifferent) rather than
+     * through clauses, and holds in every later call to solve.
+     * 
+     * Requires lits to have at most as many rows as columns, with rows of
+     * equal length, and every literal to be from the store of this solver.
+     */
+    public void addAllDifferent(int[][] lits) {
+        cancelUntil(0);
+        int[][] copy = new int[lits.length][];
+        for (int c = 0; c < lits.length; c++) {
+            copy[c] = lits[c].clone();
+        }
+        AllDifferent constraint = new AllDifferent(copy);
+        if (numEquivalent > 0) {
+            constraint.substitute(representatives);
+        }
+        if (numConstraints == constraints.length) {
+            int capacity = Math.max(4, 2 * numConstraints);
+            AllDifferent[] grown = new AllDifferent[capacity];
+            System.arraycopy(constraints, 0, grown, 0, numConstraints);
+            constraints = grown;
+        }
+        constraints[numConstraints++] = constraint;
+        indexConstraints();
+    }
+
+    /*
+     * Rebuild occurrences from the literals of the constraints, and queue
+     * every constraint.
+     */
+    private void indexConstraints() {
+        int n = 2 * numVariables;
+        if (occurrences == null) {
+            occurrences = new int[n][];
+            occurrenceCount = new int[n];
+        }
+        for (int l = 0; l < n; l++) {
+            occurrenceCount[l] = 0;
+        }
+        for (int i = 0; i < numConstraints; i++) {
+            for (int[] row : constraints[i].literals()) {
+                for (int lit : row) {
+                    if (lit < 0) {
+                        continue;
+                    }
+                    int[] cs = occurrences[lit];
+                    int m = occurrenceCount[lit];
+                    if (m > 0 && cs[m - 1] == i) {
+                        continue;
+                    }
+                    if (cs == null || m == cs.length) {
+                        int[] grown = new int[cs == null ? 4 : 2 * m];
+                        if (cs != null) {
+                            System.arraycopy(cs, 0, grown, 0, m);
+                        }
+                        occurrences[lit] = cs = grown;
+                    }
+                    cs[occurrenceCount[lit]++] = i;
+                }
+            }
+        }
+        pending = new int[numConstraints];
+        queued = new boolean[numConstraints];
+        numPending = 0;
+        for (int i = numConstraints - 1; i >= 0; i--) {
+            queue(i);
+        }
+    }
+
+    private void queue(int constraint) {
+        if (!queued[constraint]) {
+            queued[constraint] = true;
+            pending[numPending++] = constraint;
+        }
+    }
+
+    /*
+     * Run the next queued constraint, and assign the literals it implies.
+     * Returns CONSTRAINT_CONFLICT, with the falsified clause in
+     * constraintConflict, or NO_CONFLICT.
+     */
+    private int propagateConstraint() {
+        int i = pending[--numPending];
+        queued[i] = false;
+        AllDifferent constraint = constraints[i];
+        if (!constraint.propagate(values, levels)) {
+            constraintConflict = constraint.getConflict();
+            return CONSTRAINT_CONFLICT;
+        }
+        for (int k = 0; k < constraint.numImplied(); k++) {
+            int p = constraint.implied(k);
+            if (values[p] == FALSE) {
+                constraintConflict = constraint.explanation(k);
+                return CONSTRAINT_CONFLICT;
+            } else if (values[p] == UNDEF) {
+                explanations[p >> 1] = constraint.explanation(k);
+                assign(p, decisionLevel == 0 ? NO_REASON : EXPLAINED);
+            }
+        }
+        return NO_CONFLICT;
+    }
+
+    /**
+     * Search for an assignment satisfying the clauses in which every literal
+     * of assumptions is true.
+     *
+     * @return true if such an assignment exists, in which case it is
+     *         available from getModel(); otherwise false, and a subset of the
+     *         assumptions that cannot all be true is available from getCore().
+     */
+    public boolean solve(int... assumptions) {
+        model = null;
+        core = null;
+        cancelUntil(0);
+        if (!ok) {
+            core = new int[0];
+            return false;
+        }
+        int[] original = assumptions;
+        if (numEquivalent > 0) {
+            assumptions = new int[original.length];
+            for (int i = 0; i < original.length; i++) {
+                assumptions[i] = representatives[original[i]];
+            }
+        }
+        while (true) {
+            int confl = propagate();
+            if (confl != NO_CONFLICT) {
+                conflicts++;
+                if (decisionLevel == 0) {
+                    ok = false;
+                    core = new int[0];
+                    return false;
+                }
+                learn(confl);
+                activityInc *= 1 / 0.95;
+            } else {
+                int next = NO_LITERAL;
+                while (decisionLevel < assumptions.length) {
+                    int p = assumptions[decisionLevel];
+                    if (values[p] == TRUE) {
+                        // already implied: open a dummy level to keep levels
+                        // aligned with assumption indices
+                        newDecisionLevel();
+                    } else if (values[p] == FALSE) {
+                        core = retain(original, assumptions, analyzeFinal(p));
+                        cancelUntil(0);
+                        return false;
+                    } else {
+                        next = p;
+                        break;
+                    }
+                }
+                if (next == NO_LITERAL) {
+                    next = pickBranchLiteral();
+                    if (next == NO_LITERAL) {
+                        model = new boolean[numVariables];
+                        for (int v = 0; v < numVariables; v++) {
+                            model[v] = values[representatives[2 * v]] == TRUE;
+                        }
+                        cancelUntil(0);
+                        return true;
+                    }
+                    decisions++;
+                }
+                newDecisionLevel();
+                assign(next, NO_REASON);
+            }
+        }
+    }
+
+    /**
+     * Failed-literal probing: assume each unassigned literal in turn and
+     * propagate. A literal whose propagation fails must be false; a literal
+     * implied by both a and ~a must be true; and a literal q with a implying
+     * ~q and ~a implying q is equivalent to ~a, which is recorded in the
+     * implication graph and merged as for binary clauses. Rounds are repeated
+     * until nothing new is learned or the time budget runs out. The facts
+     * found hold without assumptions, so they carry over to every later call
+     * to solve.
+     *
+     * @param budgetNanos
+     *            time after which probing stops, in nanoseconds
+     * @return false if the clauses were found to be unsatisfiable, else true
+     */
+    public boolean probe(long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        cancelUntil(0);
+        if (!ok || propagate() != NO_CONFLICT) {
+            ok = false;
+            return false;
+        }
+        int[] marks = new int[2 * numVariables];
+        int[] forced = new int[numVariables];
+        int stamp = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int equivalences = 0;
+            for (int v = 0; v < numVariables; v++) {
+                if ((v & 63) == 0 && System.nanoTime() > deadline) {
+                    changed = false;
+                    break;
+                }
+                int p = 2 * v;
+                if (values[p] != UNDEF || representatives[p] != p) {
+                    continue;
+                }
+                if (!probeLiteral(p)) {
+                    if (!addFact(p ^ 1)) {
+                        return false;
+                    }
+                    changed = true;
+                    continue;
+                }
+                stamp++;
+                for (int i = trailLims[0]; i < trailSize; i++) {
+                    marks[trail[i]] = stamp;
+                }
+                cancelUntil(0);
+                if (!probeLiteral(p ^ 1)) {
+                    if (!addFact(p)) {
+                        return false;
+                    }
+                    changed = true;
+                    continue;
+                }
+                int numForced = 0;
+                for (int i = trailLims[0] + 1; i < trailSize; i++) {
+                    int q = trail[i];
+                    if (marks[q] == stamp) {
+                        forced[numForced++] = q;
+                    } else if (marks[q ^ 1] == stamp) {
+                        // ~p implies q and p implies ~q
+                        addBinary(p, q);
+                        addBinary(p ^ 1, q ^ 1);
+                        equivalences++;
+                    }
+                }
+                cancelUntil(0);
+                for (int i = 0; i < numForced; i++) {
+                    if (!addFact(forced[i])) {
+                        return false;
+                    }
+                    changed = true;
+                }
+            }
+            if (equivalences > 0 && findEquivalences() > 0) {
+                resubstitute();
+                if (!ok || propagate() != NO_CONFLICT) {
+                    ok = false;
+                    return false;
+                }
+                changed = true;
+            }
+        }
+        return ok;
+    }
+
+    // assume p at a new level and propagate; on failure, undo and return false
+    private boolean probeLiteral(int p) {
+        newDecisionLevel();
+        assign(p, NO_REASON);
+        if (propagate() != NO_CONFLICT) {
+            cancelUntil(0);
+            return false;
+        }
+        return true;
+    }
+
+    // assert p at level 0 and propagate; return false if that is a conflict
+    private boolean addFact(int p) {
+        if (values[p] == UNDEF) {
+            numProbed++;
+            assign(p, NO_REASON);
+        }
+        if (values[p] == FALSE || propagate() != NO_CONFLICT) {
+            ok = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Shrink an unsatisfiable set of assumptions by trying to drop each of
+     * its literals in turn, keeping the smaller core whenever the remaining
+     * assumptions are still unsatisfiable.
+     *
+     * @param assumptions
+     *            literals that cannot all be true, typically from getCore()
+     * @return a subset of assumptions, in the same order, that cannot all be
+     *         true but from which no single literal can be removed
+     *         without making the rest satisfiable; also available from
+     *         getCore() afterwards
+     */
+    public int[] minimizeCore(int[] assumptions) {
+        int[] current = assumptions.clone();
+        int i = 0;
+        while (i < current.length) {
+            int[] trial = new int[current.length - 1];
+            System.arraycopy(current, 0, trial, 0, i);
+            System.arraycopy(current, i + 1, trial, i, trial.length - i);
+            if (solve(trial)) {
+                i++;
+            } else {
+                current = retain(trial, trial, core);
+            }
+        }
+        model = null;
+        core = current;
+        return current;
+    }
+
+    /*
+     * The literals of lits whose counterpart in mapped is in subset, in the
+     * order of lits and without duplicates. mapped[i] is the literal that was
+     * substituted for lits[i].
+     */
+    private int[] retain(int[] lits, int[] mapped, int[] subset) {
+        int n = 0;
+        int[] result = new int[lits.length];
+        for (int i = 0; i < lits.length; i++) {
+            if (contains(subset, mapped[i]) && !contains(result, n, lits[i])) {
+                result[n++] = lits[i];
+            }
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    private static boolean contains(int[] lits, int lit) {
+        return contains(lits, lits.length, lit);
+    }
+
+    private static boolean contains(int[] lits, int length, int lit) {
+        for (int i = 0; i < length; i++) {
+            if (lits[i] == lit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the satisfying assignment found by the last call to solve,
+     *         indexed by variable id, or null if that call returned false
+     */
+    public boolean[] getModel() {
+        return model;
+    }
+
+    /**
+     * @return the assumptions responsible for the last call to solve
+     *         returning false (empty if the clauses are unsatisfiable on
+     *         their own), or null if that call returned true
+     */
+    public int[] getCore() {
+        return core;
+    }
+
+    /**
+     * @return number of branching decisions made so far, not counting
+     *         assumptions
+     */
+    public long getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * @return number of conflicts encountered so far
+     */
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return number of variables that were found equivalent to another
+     *         variable (or its negation) through binary clauses, and
+     *         replaced by it before search
+     */
+    public int getEquivalentVariables() {
+        return numEquivalent;
+    }
+
+    /**
+     * @return number of literals fixed by probe()
+     */
+    public int getProbedFacts() {
+        return numProbed;
+    }
+
+    /**
+     * @return number of literals propagated so far
+     */
+    public long getPropagations() {
+        return propagations;
+    }
+
+    private void newDecisionLevel() {
+        if (decisionLevel == trailLims.length) {
+            int[] grown = new int[trailLims.length * 2];
+            System.arraycopy(trailLims, 0, grown, 0, decisionLevel);
+            trailLims = grown;
+        }
+        trailLims[decisionLevel++] = trailSize;
+    }
+
+    private void assign(int lit, int reason) {
+        int v = lit >> 1;
+        values[lit] = TRUE;
+        values[lit ^ 1] = FALSE;
+        levels[v] = decisionLevel;
+        reasons[v] = reason;
+        trail[trailSize++] = lit;
+    }
+
+    private int attach(int[] c) {
+        if (numClauses == clauses.length) {
+            int[][] grown = new int[clauses.length * 2][];
+            System.arraycopy(clauses, 0, grown, 0, numClauses);
+            clauses = grown;
+        }
+        clauses[numClauses] = c;
+        watch(c[0], numClauses);
+        watch(c[1], numClauses);
+        return numClauses++;
+    }
+
+    private void watch(int lit, int clause) {
+        int[] ws = watches[lit];
+        if (watchCount[lit] == ws.length) {
+            int[] grown = new int[ws.length * 2];
+            System.arraycopy(ws, 0, grown, 0, ws.length);
+            watches[lit] = ws = grown;
+        }
+        ws[watchCount[lit]++] = clause;
+    }
+
+    /*
+     * Unit propagation over the implication graph and the watched literals,
+     * then the queued constraints, until neither has anything left to do.
+     * Returns the index of a falsified clause, BINARY_CONFLICT if the
+     * falsified clause is the binary clause in binaryConflict,
+     * CONSTRAINT_CONFLICT if it is constraintConflict, or NO_CONFLICT.
+     */
+    private int propagate() {
+        while (qhead < trailSize || numPending > 0) {
+            if (qhead == trailSize) {
+                int confl = propagateConstraint();
+                if (confl != NO_CONFLICT) {
+                    return confl;
+                }
+                continue;
+            }
+            int trueLit = trail[qhead++];
+            int falseLit = trueLit ^ 1;
+            propagations++;
+            if (occurrences != null) {
+                for (int k = 0; k < occurrenceCount[falseLit]; k++) {
+                    queue(occurrences[falseLit][k]);
+                }
+            }
+
+            // binary clauses first: no watches to move, just follow the edges
+            int[] implied = implications[trueLit];
+            int m = implicationCount[trueLit];
+            for (int k = 0; k < m; k++) {
+                int q = implied[k];
+                if (values[q] == UNDEF) {
+                    assign(q, binaryReason(falseLit));
+                } else if (values[q] == FALSE) {
+                    binaryConflict[0] = q;
+                    binaryConflict[1] = falseLit;
+                    qhead = trailSize;
+                    return BINARY_CONFLICT;
+                }
+            }
+
+            int[] ws = watches[falseLit];
+            int n = watchCount[falseLit];
+            int i = 0;
+            int j = 0;
+            while (i < n) {
+                int ci = ws[i++];
+                int[] c = clauses[ci];
+                if (c[0] == falseLit) {
+                    c[0] = c[1];
+                    c[1] = falseLit;
+                }
+                if (values[c[0]] == TRUE) {
+                    ws[j++] = ci;
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < c.length; k++) {
+                    if (values[c[k]] != FALSE) {
+                        c[1] = c[k];
+                        c[k] = falseLit;
+                        watch(c[1], ci);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved) {
+                    continue;
+                }
+                ws[j++] = ci;
+                if (values[c[0]] == FALSE) {
+                    while (i < n) {
+                        ws[j++] = ws[i++];
+                    }
+                    watchCount[falseLit] = j;
+                    qhead = trailSize;
+                    return ci;
+                }
+                assign(c[0], ci);
+            }
+            watchCount[falseLit] = j;
+        }
+        return NO_CONFLICT;
+    }
+
+    /*
+     * First-UIP conflict analysis: derive a clause from the conflict, jump
+     * back to the level where it becomes unit, and assert it.
+     */
+    private void learn(int confl) {
+        int[] learnt = new int[decisionLevel + 1];
+        int size = 1;
+        int pathCount = 0;
+        int p = NO_LITERAL;
+        int index = trailSize - 1;
+        int[] c;
+        if (confl == BINARY_CONFLICT) {
+            c = binaryConflict;
+        } else if (confl == CONSTRAINT_CONFLICT) {
+            c = constraintConflict;
+        } else {
+            c = clauses[confl];
+        }
+        do {
+            for (int k = (p == NO_LITERAL) ? 0 : 1; k < c.length; k++) {
+                int q = c[k];
+                int v = q >> 1;
+                if (!seen[v] && levels[v] > 0) {
+                    seen[v] = true;
+                    bump(v);
+                    if (levels[v] >= decisionLevel) {
+                        pathCount++;
+                    } else {
+                        if (size == learnt.length) {
+                            int[] grown = new int[size * 2];
+                            System.arraycopy(learnt, 0, grown, 0, size);
+                            learnt = grown;
+                        }
+                        learnt[size++] = q;
+                    }
+                }
+            }
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+            p = trail[index--];
+            seen[p >> 1] = false;
+            pathCount--;
+            if (pathCount > 0) {
+                c = reasonClause(p);
+            }
+        } while (pathCount > 0);
+        learnt[0] = p ^ 1;
+
+        int backtrackLevel = 0;
+        for (int k = 1; k < size; k++) {
+            seen[learnt[k] >> 1] = false;
+            int level = levels[learnt[k] >> 1];
+            if (level > backtrackLevel) {
+                backtrackLevel = level;
+                int tmp = learnt[1];
+                learnt[1] = learnt[k];
+                learnt[k] = tmp;
+            }
+        }
+        cancelUntil(backtrackLevel);
+        if (size == 1) {
+            assign(learnt[0], NO_REASON);
+        } else if (size == 2) {
+            addBinary(learnt[0], learnt[1]);
+            assign(learnt[0], binaryReason(learnt[1]));
+        } else {
+            int[] clause = new int[size];
+            System.arraycopy(learnt, 0, clause, 0, size);
+            assign(clause[0], attach(clause));
+        }
+    }
+
+    /*
+     * Called when assumption p is false: collect the assumptions whose
+     * propagation made it false.
+     */
+    private int[] analyzeFinal(int p) {
+        int[] out = new int[decisionLevel + 1];
+        int size = 0;
+        out[size++] = p;
+        if (levels[p >> 1] > 0) {
+            seen[p >> 1] = true;
+            for (int i = trailSize - 1; i >= trailLims[0]; i--) {
+                int v = trail[i] >> 1;
+                if (!seen[v]) {
+                    continue;
+                }
+                if (reasons[v] == NO_REASON) {
+                    out[size++] = trail[i];
+                } else {
+                    int[] c = reasonClause(trail[i]);
+                    for (int k = 1; k < c.length; k++) {
+                        if (levels[c[k] >> 1] > 0) {
+                            seen[c[k] >> 1] = true;
+                        }
+                    }
+                }
+                seen[v] = false;
+            }
+        }
+        int[] result = new int[size];
+        System.arraycopy(out, 0, result, 0, size);
+        return result;
+    }
+
+    private void cancelUntil(int level) {
+        if (decisionLevel <= level) {
+            return;
+        }
+        for (int i = trailSize - 1; i >= trailLims[level]; i--) {
+            int lit = trail[i];
+            int v = lit >> 1;
+            values[lit] = UNDEF;
+            values[lit ^ 1] = UNDEF;
+            phases[v] = (lit & 1) == 0;
+            if (heapIndex[v] < 0) {
+                heapInsert(v);
+            }
+        }
+        trailSize = trailLims[level];
+        qhead = trailSize;
+        decisionLevel = level;
+    }
+
+    private int pickBranchLiteral() {
+        while (heapSize > 0) {
+            int v = heapRemoveMax();
+            if (values[2 * v] == UNDEF && representatives[2 * v] == 2 * v) {
+                return phases[v] ? 2 * v : 2 * v + 1;
+            }
+        }
+        return NO_LITERAL;
+    }
+
+    private void bump(int v) {
+        activity[v] += activityInc;
+        if (activity[v] > 1e100) {
+            for (int u = 0; u < numVariables; u++) {
+                activity[u] *= 1e-100;
+            }
+            activityInc *= 1e-100;
+        }
+        if (heapIndex[v] >= 0) {
+            heapUp(heapIndex[v]);
+        }
+    }
+
+    // binary max-heap of variables ordered by activity
+
+    private void heapInsert(int v) {
+        heapIndex[v] = heapSize;
+        heap[heapSize++] = v;
+        heapUp(heapSize - 1);
+    }
+
+    private int heapRemoveMax() {
+        int top = heap[0];
+        heapIndex[top] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapDown(0);
+        }
+        return top;
+    }
+
+    private void heapUp(int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (activity[heap[parent]] >= activity[v]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        int v = heap[i];
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]]) {
+                child++;
+            }
+            if (activity[heap[child]] <= activity[v]) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+}
@@ -0,0 +1,225 @@
+package sat;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import sat.env.Variable;
+
+public class SolverTest {
+    // variables 0..3, as positive and negative literals
+    int a = 0, na = 1;
+    int b = 2, nb = 3;
+    int c = 4, nc = 5;
+    int d = 6, nd = 7;
+
+    // make sure assertions are turned on!
+    // we don't want to run test cases without assertions too.
+    // see the handout to find out how to turn them on.
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false;
+    }
+
+    @Test
+    public void binaryChainTest() {
+        // a(~a + b)(~b + c)(~c + d): everything follows from a
+        Solver solver = new Solver(store(new int[] { a }, new int[] { na, b }, new int[] { nb, c }, new int[] { nc, d }));
+
+        assertTrue(solver.solve());
+        boolean[] model = solver.getModel();
+        assertTrue(model[0] && model[1] && model[2] && model[3]);
+        assertEquals(0, solver.getDecisions());
+    }
+
+    @Test
+    public void streamTest() {
+        // (a + a + b)(~a + c + a)(~a + ~b)(~b + c + d)(~c): the first clause
+        // is (a + b) and the second always true
+        List<int[]> clauses = new ArrayList<int[]>();
+        clauses.add(new int[] { a, a, b });
+        clauses.add(new int[] { na, c, a });
+        clauses.add(new int[] { na, nb });
+        clauses.add(new int[] { nb, c, d });
+        clauses.add(new int[] { nc });
+        Solver solver = new Solver(4, clauses.spliterator());
+
+        assertTrue(solver.solve(b));
+        assertTrue(solver.getModel()[3]);
+        assertFalse(solver.solve(b, nd));
+
+        clauses.add(new int[0]);
+        assertFalse(new Solver(4, clauses.spliterator()).solve());
+    }
+
+    @Test
+    public void equivalentLiteralsTest() {
+        // (~a + b)(~b + a) makes a and b equivalent, (~b + ~c)(b + c) makes
+        // c equivalent to ~b; only a needs to be searched
+        Solver solver = new Solver(store(new int[] { na, b }, new int[] { nb, a },
+                new int[] { nb, nc }, new int[] { b, c }, new int[] { a, c, d }));
+
+        assertEquals(2, solver.getEquivalentVariables());
+        assertTrue(solver.solve(nc));
+        boolean[] model = solver.getModel();
+        assertTrue(model[0] && model[1] && !model[2]);
+    }
+
+    @Test
+    public void equivalentToNegationTest() {
+        // (~a + ~b)(a + b)(~a + b)(a + ~b) is unsatisfiable: a == b == ~a
+        Solver solver = new Solver(store(new int[] { na, nb }, new int[] { a, b },
+                new int[] { na, b }, new int[] { a, nb }));
+
+        assertFalse(solver.solve());
+        assertEquals(0, solver.getCore().length);
+    }
+
+    @Test
+    public void coreOfEquivalentAssumptionsTest() {
+        // a == b, so assuming b and ~a conflicts; c is not involved
+        Solver solver = new Solver(store(new int[] { na, b }, new int[] { nb, a }, new int[] { c, d }));
+
+        assertFalse(solver.solve(c, b, na));
+        assertArrayEquals(new int[] { b, na }, solver.minimizeCore(solver.getCore()));
+    }
+
+    @Test
+    public void copyTest() {
+        // a == b, and (~a + ~c + d): copies start from the equivalence and
+        // from the facts of the prototype, and do not share assignments
+        Solver prototype = new Solver(store(new int[] { na, b }, new int[] { nb, a },
+                new int[] { na, nc, d }, new int[] { c }));
+        Solver first = new Solver(prototype);
+        Solver second = new Solver(prototype);
+
+        assertEquals(1, first.getEquivalentVariables());
+        assertFalse(first.solve(b, nd));
+        assertArrayEquals(new int[] { b, nd }, first.getCore());
+        assertTrue(second.solve(b));
+        assertTrue(second.getModel()[3]);
+        assertTrue(new Solver(prototype).solve(na, nd));
+        assertEquals(0, prototype.getDecisions());
+    }
+
+    @Test
+    public void probingTest() {
+        // a fails at once; with ~a, ~c fails too, and then d follows by
+        // propagation: only b, which is unconstrained, is left to the search
+        Solver solver = new Solver(store(new int[] { na, b }, new int[] { na, nb },
+                new int[] { a, c, d }, new int[] { a, nc, d }, new int[] { a, c, nd }));
+
+        assertTrue(solver.probe(1000000000L));
+        assertEquals(2, solver.getProbedFacts());
+        assertTrue(solver.solve());
+        boolean[] model = solver.getModel();
+        assertTrue(!model[0] && model[2] && model[3]);
+        assertEquals(1, solver.getDecisions());
+    }
+
+    @Test
+    public void probingUnsatisfiableTest() {
+        // both a and ~a fail
+        Solver solver = new Solver(store(new int[] { na, b, c }, new int[] { na, nb, c }, new int[] { na, nc },
+                new int[] { a, b, d }, new int[] { a, nb, d }, new int[] { a, nd }));
+
+        assertFalse(solver.probe(1000000000L));
+        assertFalse(solver.solve());
+    }
+
+    @Test
+    public void allDifferentHallSetTest() {
+        // cells 0 and 1 cannot take value 2, so they take 0 and 1 between
+        // them: cell 2 must take 2, which propagation alone finds
+        ClauseStore store = cells(3);
+        store.addClause(x(0, 2) ^ 1);
+        store.addClause(x(1, 2) ^ 1);
+        Solver solver = new Solver(store);
+        solver.addAllDifferent(values(3));
+
+        assertFalse(solver.solve(x(2, 2) ^ 1));
+        assertArrayEquals(new int[] { x(2, 2) ^ 1 }, solver.getCore());
+        assertEquals(0, solver.getConflicts());
+        assertTrue(solver.solve());
+        boolean[] model = solver.getModel();
+        assertTrue(model[x(2, 2) >> 1]);
+        assertTrue(model[x(0, 0) >> 1] != model[x(1, 0) >> 1]);
+    }
+
+    @Test
+    public void allDifferentConflictTest() {
+        // unless the last variable is true, cells 0, 1 and 2 can only take
+        // values 0 and 1; found as a conflict once it is assumed false
+        ClauseStore store = cells(4);
+        int s = 2 * 16;
+        for (int c = 0; c < 3; c++) {
+            store.addClause(s, x(c, 2) ^ 1);
+            store.addClause(s, x(c, 3) ^ 1);
+        }
+        Solver solver = new Solver(store);
+        solver.addAllDifferent(values(4));
+
+        assertFalse(solver.solve(s ^ 1));
+        assertArrayEquals(new int[] { s ^ 1 }, solver.getCore());
+        assertTrue(solver.solve());
+        boolean[] model = solver.getModel();
+        for (int v = 0; v < 4; v++) {
+            int taken = 0;
+            for (int c = 0; c < 4; c++) {
+                taken += model[x(c, v) >> 1] ? 1 : 0;
+            }
+            assertEquals(1, taken);
+        }
+    }
+
+    // literal for cell c taking value v, in cells(n) with n <= 4
+    private int x(int c, int v) {
+        return 2 * (4 * c + v);
+    }
+
+    // a store where each of n cells takes exactly one of n values, with
+    // variables 4c+v for cell c taking value v and one more variable
+    private ClauseStore cells(int n) {
+        ClauseStore store = new ClauseStore();
+        for (int v = 0; v <= 16; v++) {
+            store.variable(new Variable("x" + v));
+        }
+        for (int c = 0; c < n; c++) {
+            int[] atLeastOne = new int[n];
+            for (int v = 0; v < n; v++) {
+                atLeastOne[v] = x(c, v);
+                for (int w = v + 1; w < n; w++) {
+                    store.addClause(x(c, v) ^ 1, x(c, w) ^ 1);
+                }
+            }
+            store.addClause(atLeastOne);
+        }
+        return store;
+    }
+
+    // the literals of the all-different constraint over cells(n)
+    private int[][] values(int n) {
+        int[][] lits = new int[n][n];
+        for (int c = 0; c < n; c++) {
+            for (int v = 0; v < n; v++) {
+                lits[c][v] = x(c, v);
+            }
+        }
+        return lits;
+    }
+
+    // a store over the four variables with the given clauses
+    private ClauseStore store(int[]... clauses) {
+        ClauseStore store = new ClauseStore();
+        for (String name : new String[] { "a", "b", "c", "d" }) {
+            store.variable(new Variable(name));
+        }
+        for (int[] clause : clauses) {
+            store.addClause(clause);
+        }
+        return store;
+    }
+}
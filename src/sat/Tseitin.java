@@ -0,0 +1,193 @@
+package sat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sat.env.VariableRegistry;
+import sat.formula.Expr;
+
+/**
+ * Clausifies an expression into a ClauseStore with the Plaisted-Greenbaum
+ * variant of the Tseitin transformation. Each conjunction or disjunction
+ * gets an auxiliary variable, named "_t" followed by a number, that stands
+ * for it; negations cost nothing, since they just flip the literal of their
+ * operand. A shared subexpression is clausified once.
+ *
+ * Only the implications needed for the polarity in which a node occurs are
+ * emitted: a node that only occurs positively just needs its variable to
+ * imply the node, not the converse. The result is equisatisfiable with the
+ * expression, and its size is linear in the size of the DAG.
+ *
+ * See Plaisted and Greenbaum, "A structure-preserving clause form
+ * translation".
+ */
+class Tseitin {
+    private static final int POSITIVE = 1;
+    private static final int NEGATIVE = 2;
+    private static final int BOTH = POSITIVE | NEGATIVE;
+
+    private final ClauseStore store;
+    private final VariableRegistry auxiliaries = new VariableRegistry("_t");
+    // polarities in which each conjunction and disjunction occurs, in the
+    // order in which they were reached
+    private final Map<Expr, Integer> polarities = new LinkedHashMap<Expr, Integer>();
+    // int literal standing for each conjunction, disjunction and variable
+    private final Map<Expr, Integer> literals = new HashMap<Expr, Integer>();
+    private final List<Expr> pending = new ArrayList<Expr>();
+    private final List<Integer> pendingPolarities = new ArrayList<Integer>();
+    private int[] buffer = new int[8];
+
+    private Tseitin(ClauseStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Add to store clauses that are satisfiable iff e is, and whose models
+     * restricted to the variables of e are models of e.
+     */
+    static void clausify(Expr e, ClauseStore store) {
+        Tseitin t = new Tseitin(store);
+        t.assertTrue(e);
+        t.emitDefinitions();
+    }
+
+    // add clauses requiring e to be true: top-level conjunctions are split
+    // and top-level disjunctions become a single clause, without auxiliaries
+    private void assertTrue(Expr root) {
+        List<Expr> stack = new ArrayList<Expr>();
+        List<Boolean> signs = new ArrayList<Boolean>();
+        stack.add(root);
+        signs.add(true);
+        while (!stack.isEmpty()) {
+            Expr e = stack.remove(stack.size() - 1);
+            boolean sign = signs.remove(signs.size() - 1);
+            while (e.getKind() == Expr.Kind.NOT) {
+                e = e.getChild(0);
+                sign = !sign;
+            }
+            Expr.Kind kind = e.getKind();
+            if (kind == Expr.Kind.TRUE || kind == Expr.Kind.FALSE) {
+                if ((kind == Expr.Kind.TRUE) != sign) {
+                    store.addClause(new int[0]);
+                }
+            } else if (kind == (sign ? Expr.Kind.AND : Expr.Kind.OR)) {
+                // a conjunction: each operand must hold
+                for (int i = 0; i < e.numChildren(); i++) {
+                    stack.add(e.getChild(i));
+                    signs.add(sign);
+                }
+            } else if (kind != Expr.Kind.VAR) {
+                // a disjunction: one clause over the operands
+                int n = e.numChildren();
+                int[] clause = new int[n];
+                for (int i = 0; i < n; i++) {
+                    Expr child = e.getChild(i);
+                    mark(child, sign ? POSITIVE : NEGATIVE);
+                    clause[i] = sign ? literal(child) : literal(child) ^ 1;
+                }
+                store.addClause(clause);
+            } else {
+                store.addClause(sign ? literal(e) : literal(e) ^ 1);
+            }
+        }
+    }
+
+    // record that e occurs with the given polarity, and so its operands
+    private void mark(Expr root, int polarity) {
+        pending.add(root);
+        pendingPolarities.add(polarity);
+        while (!pending.isEmpty()) {
+            Expr e = pending.remove(pending.size() - 1);
+            int p = pendingPolarities.remove(pendingPolarities.size() - 1);
+            while (e.getKind() == Expr.Kind.NOT) {
+                e = e.getChild(0);
+                p = flip(p);
+            }
+            if (e.getKind() != Expr.Kind.AND && e.getKind() != Expr.Kind.OR) {
+                continue;
+            }
+            Integer old = polarities.get(e);
+            int known = old == null ? 0 : old;
+            int added = p & ~known;
+            if (added == 0) {
+                continue;
+            }
+            polarities.put(e, known | added);
+            for (int i = 0; i < e.numChildren(); i++) {
+                pending.add(e.getChild(i));
+                pendingPolarities.add(added);
+            }
+        }
+    }
+
+    // clauses linking each auxiliary variable to its operands
+    private void emitDefinitions() {
+        for (Map.Entry<Expr, Integer> entry : polarities.entrySet()) {
+            Expr e = entry.getKey();
+            int p = entry.getValue();
+            int t = literal(e);
+            int n = e.numChildren();
+            boolean isAnd = e.getKind() == Expr.Kind.AND;
+            // t -> (c1 & ... & cn) for AND, t -> (c1 | ... | cn) for OR
+            if ((p & POSITIVE) != 0) {
+                if (isAnd) {
+                    for (int i = 0; i < n; i++) {
+                        store.addClause(t ^ 1, literal(e.getChild(i)));
+                    }
+                } else {
+                    emitWide(t ^ 1, e, false);
+                }
+            }
+            // the converse implications
+            if ((p & NEGATIVE) != 0) {
+                if (isAnd) {
+                    emitWide(t, e, true);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        store.addClause(literal(e.getChild(i)) ^ 1, t);
+                    }
+                }
+            }
+        }
+    }
+
+    // the clause (first | c1 | ... | cn), with each ci negated if negate
+    private void emitWide(int first, Expr e, boolean negate) {
+        int n = e.numChildren();
+        if (buffer.length < n + 1) {
+            buffer = new int[2 * (n + 1)];
+        }
+        buffer[0] = first;
+        for (int i = 0; i < n; i++) {
+            int lit = literal(e.getChild(i));
+            buffer[i + 1] = negate ? lit ^ 1 : lit;
+        }
+        store.addClause(buffer, n + 1);
+    }
+
+    // the int literal standing for e, allocating an auxiliary if needed
+    private int literal(Expr e) {
+        int negated = 0;
+        while (e.getKind() == Expr.Kind.NOT) {
+            e = e.getChild(0);
+            negated ^= 1;
+        }
+        Integer lit = literals.get(e);
+        if (lit == null) {
+            if (e.getKind() == Expr.Kind.VAR) {
+                lit = 2 * store.variable(e.getVariable());
+            } else {
+                lit = 2 * store.variable(auxiliaries.fresh());
+            }
+            literals.put(e, lit);
+        }
+        return lit ^ negated;
+    }
+
+    private static int flip(int polarity) {
+        return polarity == BOTH ? BOTH : polarity ^ BOTH;
+    }
+}
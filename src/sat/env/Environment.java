@@ -5,7 +5,7 @@
  * (c) 2008, MIT and Daniel Jackson
  */
 package sat.env;
-import immutable.AssocList;
+import immutable.HashTrieMap;
 import immutable.ImMap;
 
 /**
@@ -31,7 +31,17 @@ public class Environment {
     }
 
     public Environment() {
-        this (new AssocList<Variable, Bool> ());
+        this (new HashTrieMap<Variable, Bool> ());
+    }
+
+    /**
+     * Requires: variables.length == values.length, and the variables are
+     * distinct. The arrays must not be modified afterwards.
+     * @return an environment binding variables[i] to Bool.TRUE if values[i]
+     * is true and to Bool.FALSE otherwise, with constant-time lookups
+     */
+    public static Environment fromModel(Variable[] variables, boolean[] values) {
+        return new Environment (new ModelBindings (variables, values));
     }
 
     /**
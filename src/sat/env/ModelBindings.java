@@ -0,0 +1,87 @@
+package sat.env;
+
+import immutable.HashTrieMap;
+import immutable.ImMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable bindings backed by a dense model, as returned by a solver:
+ * variables[i] is bound to values[i]. Lookups take constant time. Bindings
+ * added later with put are kept in a separate map of overrides, so the
+ * arrays are shared, never copied or modified.
+ */
+class ModelBindings implements ImMap<Variable, Bool> {
+    /*
+     * Rep invariant
+     *     ids maps variables[i] to i, for every i
+     *     values.length == variables.length
+     *     overrides != null
+     *     added is the number of keys of overrides that are not in ids
+     */
+    private final Variable[] variables;
+    private final boolean[] values;
+    private final Map<Variable, Integer> ids;
+    private final ImMap<Variable, Bool> overrides;
+    private final int added;
+
+    ModelBindings(Variable[] variables, boolean[] values) {
+        this.variables = variables;
+        this.values = values;
+        this.ids = new HashMap<Variable, Integer>();
+        for (int i = 0; i < variables.length; i++) {
+            ids.put(variables[i], i);
+        }
+        this.overrides = new HashTrieMap<Variable, Bool>();
+        this.added = 0;
+    }
+
+    private ModelBindings(ModelBindings base, ImMap<Variable, Bool> overrides, int added) {
+        this.variables = base.variables;
+        this.values = base.values;
+        this.ids = base.ids;
+        this.overrides = overrides;
+        this.added = added;
+    }
+
+    public boolean containsKey(Object k) {
+        return get(k) != null;
+    }
+
+    public Bool get(Object k) {
+        Bool b = overrides.get(k);
+        if (b != null) {
+            return b;
+        }
+        Integer id = ids.get(k);
+        if (id == null) {
+            return null;
+        }
+        return values[id] ? Bool.TRUE : Bool.FALSE;
+    }
+
+    public ImMap<Variable, Bool> put(Variable key, Bool value) {
+        boolean isNew = !overrides.containsKey(key) && !ids.containsKey(key);
+        return new ModelBindings(this, overrides.put(key, value), isNew ? added + 1 : added);
+    }
+
+    public int size() {
+        return variables.length + added;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < variables.length; i++) {
+            if (i > 0) {
+                s.append(", ");
+            }
+            s.append(variables[i]).append("->").append(get(variables[i]));
+        }
+        return s.append("]").append(overrides).toString();
+    }
+}
@@ -10,16 +10,39 @@ package sat.env;
 /**
  * A Variable is a logical propositional variable.
  * This datatype is immutable.
+ *
+ * A variable is either named, created with a name by a client, or numbered,
+ * handed out by a VariableRegistry under a dense integer id. A numbered
+ * variable only builds its name when it is first asked for, for debugging
+ * output.
  */
 public class Variable {
     /*
      * Rep invariant
-     *     name != null
+     *     registry == null ==> name != null and id == -1
+     *     registry != null ==> 0 <= id and this == registry.get(id)
+     *     hash is the hash code of this
+     *
+     * name may be null until getName is first called on a numbered variable.
      */
-    private final String name;
+    private String name;
+    private final VariableRegistry registry;
+    private final int id;
+    private final int hash;
 
     public Variable (String name) {
         this.name = name;
+        this.registry = null;
+        this.id = -1;
+        this.hash = name.hashCode();
+    }
+
+    // should only be used by VariableRegistry
+    Variable (VariableRegistry registry, int id) {
+        this.registry = registry;
+        this.id = id;
+        // spread consecutive ids apart
+        this.hash = id * 0x9E3779B9;
     }
 
     public Bool eval (Environment e) {
@@ -27,16 +50,30 @@ public class Variable {
     }
 
     public String toString () {
-        return name;
+        return getName();
     }
     
     public String getName () {
+        // racing threads may each build the name, but they build equal strings
+        if (name == null) {
+            name = registry.nameOf(id);
+        }
         return name;
     }
+
+    /**
+     * @return the id of this variable in its registry, or -1 if this is a
+     *         named variable
+     */
+    public int getId () {
+        return id;
+    }
     
     /**
-     * @return true iff this and o represent the same literal
-     * (that is, they have the same string name)
+     * @return true iff this and o represent the same variable: either both
+     * are named variables with the same string name, or they are the same
+     * numbered variable. A numbered variable is never equal to a named one,
+     * even if their names match.
      */
     public boolean equals (Object o) {
         if (o == this) {
@@ -46,6 +83,15 @@ public class Variable {
         	return false;
         }
         Variable v = (Variable) o;
-        return v.name.equals(name); 
+        if (registry != null || v.registry != null) {
+            // a registry hands out one object per id
+            return false;
+        }
+        return hash == v.hash && v.name.equals(name); 
+    }
+
+    @Override
+    public int hashCode () {
+        return hash;
     }
 }
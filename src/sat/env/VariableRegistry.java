@@ -0,0 +1,76 @@
+package sat.env;
+
+/**
+ * A VariableRegistry hands out numbered variables with dense ids 0, 1, 2, ...
+ * Their names are not built until they are printed, so that large encodings
+ * can create many variables without formatting a string for each one. Safe
+ * to use from several threads at once.
+ */
+public class VariableRegistry {
+    /**
+     * Builds the name of a numbered variable from its id.
+     */
+    public interface Namer {
+        String name(int id);
+    }
+
+    private final Namer namer;
+    private Variable[] variables;
+    private int size;
+    // Rep invariant:
+    //      namer != null
+    //      variables[0..size) are non-null, and variables[i] has id i
+
+    /**
+     * Create a registry whose variables are named by prefix followed by
+     * their id.
+     */
+    public VariableRegistry(final String prefix) {
+        this(new Namer() {
+            public String name(int id) {
+                return prefix + id;
+            }
+        });
+    }
+
+    /**
+     * Create a registry whose variables are named by namer.
+     */
+    public VariableRegistry(Namer namer) {
+        this.namer = namer;
+        this.variables = new Variable[16];
+    }
+
+    /**
+     * @return a new variable, with the next unused id
+     */
+    public synchronized Variable fresh() {
+        if (size == variables.length) {
+            Variable[] grown = new Variable[variables.length * 2];
+            System.arraycopy(variables, 0, grown, 0, size);
+            variables = grown;
+        }
+        Variable v = new Variable(this, size);
+        variables[size++] = v;
+        return v;
+    }
+
+    /**
+     * @return the variable with the given id. Requires 0 <= id < size()
+     */
+    public synchronized Variable get(int id) {
+        return variables[id];
+    }
+
+    /**
+     * @return number of variables handed out so far
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    // name of the variable with the given id
+    String nameOf(int id) {
+        return namer.name(id);
+    }
+}
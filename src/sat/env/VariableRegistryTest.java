@@ -0,0 +1,57 @@
+package sat.env;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class VariableRegistryTest {
+    // make sure assertions are turned on!
+    // we don't want to run test cases without assertions too.
+    // see the handout to find out how to turn them on.
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false;
+    }
+
+    @Test
+    public void denseIdsTest() {
+        VariableRegistry registry = new VariableRegistry("x");
+        for (int i = 0; i < 100; i++) {
+            Variable v = registry.fresh();
+            assertEquals(i, v.getId());
+            assertSame(v, registry.get(i));
+        }
+        assertEquals(100, registry.size());
+        assertEquals("x42", registry.get(42).toString());
+    }
+
+    @Test
+    public void lazyNameTest() {
+        final int[] named = new int[1];
+        VariableRegistry registry = new VariableRegistry(new VariableRegistry.Namer() {
+            public String name(int id) {
+                named[0]++;
+                return "y" + id;
+            }
+        });
+        Variable a = registry.fresh();
+        Variable b = registry.fresh();
+        Environment e = new Environment().putTrue(a).putFalse(b);
+        assertEquals(Bool.TRUE, e.get(a));
+        assertEquals(Bool.FALSE, e.get(b));
+        assertEquals(0, named[0]);
+        assertEquals("y1", b.getName());
+        assertEquals("y1", b.getName());
+        assertEquals(1, named[0]);
+    }
+
+    @Test
+    public void equalityTest() {
+        VariableRegistry registry = new VariableRegistry("x");
+        Variable x0 = registry.fresh();
+        assertFalse(x0.equals(new Variable("x0")));
+        assertFalse(x0.equals(new VariableRegistry("x").fresh()));
+        assertEquals(new Variable("x0"), new Variable("x0"));
+        assertEquals(new Variable("x0").hashCode(), new Variable("x0").hashCode());
+    }
+}
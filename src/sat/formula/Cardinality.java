@@ -0,0 +1,74 @@
+package sat.formula;
+
+import java.util.List;
+
+import sat.ClauseBuffer;
+import sat.env.VariableRegistry;
+
+/**
+ * CNF encodings of cardinality constraints, used by the builders in Formula.
+ * The clauses are written by a ClauseBuffer over int literals, so that
+ * Formula and the int encoders share one implementation of each encoding,
+ * and turned back into Clauses here. Encodings other than PAIRWISE
+ * introduce auxiliary variables: numbered variables of a registry of their
+ * own for each constraint, printed as "_aux" followed by their number,
+ * which are never equal to a named variable, even one called "_aux0".
+ */
+class Cardinality {
+    private Cardinality() {
+    }
+
+    /**
+     * @return f with clauses added requiring at most one of ls to be true
+     */
+    static Formula atMostOne(Formula f, List<Literal> ls, Formula.Encoding encoding) {
+        ClauseBuffer buffer = new ClauseBuffer(ls.size());
+        buffer.atMostOne(lits(ls), ls.size(), encoding);
+        return addAll(f, ls, buffer);
+    }
+
+    /**
+     * @return f with clauses added requiring at most k of ls to be true.
+     *         Requires k >= 0
+     */
+    static Formula atMostK(Formula f, List<Literal> ls, int k, Formula.Encoding encoding) {
+        ClauseBuffer buffer = new ClauseBuffer(ls.size());
+        buffer.atMostK(lits(ls), ls.size(), k, encoding);
+        return addAll(f, ls, buffer);
+    }
+
+    // literal i of ls is the int literal 2i
+    private static int[] lits(List<Literal> ls) {
+        int[] lits = new int[ls.size()];
+        for (int i = 0; i < lits.length; i++) {
+            lits[i] = 2 * i;
+        }
+        return lits;
+    }
+
+    // f with the clauses of buffer added, over ls and a new literal for
+    // each auxiliary variable of buffer
+    private static Formula addAll(Formula f, List<Literal> ls, ClauseBuffer buffer) {
+        int n = ls.size();
+        Literal[] aux = new Literal[buffer.numAux()];
+        if (aux.length > 0) {
+            // made without going through the interning map of the factory,
+            // which may be the shared one of PosLiteral.make
+            LiteralFactory factory = ls.get(0).getFactory();
+            VariableRegistry registry = new VariableRegistry("_aux");
+            for (int a = 0; a < aux.length; a++) {
+                aux[a] = factory.fresh(registry);
+            }
+        }
+        for (int[] lits = buffer.poll(); lits != null; lits = buffer.poll()) {
+            Clause c = new Clause();
+            for (int lit : lits) {
+                int v = lit >> 1;
+                Literal l = v < n ? ls.get(v) : aux[v - n];
+                c = c.add((lit & 1) == 0 ? l : l.getNegation());
+            }
+            f = f.addClause(c);
+        }
+        return f;
+    }
+}
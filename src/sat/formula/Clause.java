@@ -19,12 +19,14 @@ import java.util.Iterator;
  */
 public class Clause implements Iterable<Literal> {
     private final ImList<Literal> literals;
+    private final int hash;
     /*
      * Rep invariant:
      *       literals is non-null but may be empty 
      *       contains no duplicate literals
      *    contains no literal and its negation
      *       contains no null elements
+     *       hash is the sum of the hash codes of literals
      * 
      * Abstraction function:
      *     The list of literals l1,l2,...,ln represents 
@@ -57,7 +59,12 @@ public class Clause implements Iterable<Literal> {
     }
 
     private Clause(ImList<Literal> literals) {
+        this(literals, hash(literals));
+    }
+
+    private Clause(ImList<Literal> literals, int hash) {
         this.literals = literals;
+        this.hash = hash;
         checkRep();
     }
 
@@ -65,7 +72,7 @@ public class Clause implements Iterable<Literal> {
      * @return a clause contain a single literal
      */
     public Clause(Literal literal) {
-        this(new Cons<Literal>(literal));
+        this(new Cons<Literal>(literal), literal.hashCode());
         checkRep();
     }
 
@@ -73,10 +80,19 @@ public class Clause implements Iterable<Literal> {
      * @return an empty clause
      */
     public Clause() {
-        this(new Empty<Literal>());
+        this(new Empty<Literal>(), 0);
         checkRep();
     }
 
+    // independent of the order of literals, like equals
+    private static int hash(ImList<Literal> literals) {
+        int h = 0;
+        for (Literal l : literals) {
+            h += l.hashCode();
+        }
+        return h;
+    }
+
     /**
      * Arbitrarily pick a literal from this clause
      * Requires that clause be non-empty.
@@ -129,7 +145,7 @@ public class Clause implements Iterable<Literal> {
         if (literals.contains(l.getNegation())) {
         	return null;
         }
-        return new Clause(literals.addToFront(l));
+        return new Clause(literals.addToFront(l), hash + l.hashCode());
     }
 
     /**
@@ -203,7 +219,7 @@ public class Clause implements Iterable<Literal> {
         	return false;
         }
         Clause c = (Clause) that;
-        if (size() != c.size()) {
+        if (hash != c.hash || size() != c.size()) {
         	return false;
         }
         for (Literal l: literals) {
@@ -213,4 +229,9 @@ public class Clause implements Iterable<Literal> {
         }
         return true;
     }
+
+    @Override
+    public int hashCode () {
+        return hash;
+    }
 }
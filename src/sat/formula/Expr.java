@@ -0,0 +1,159 @@
+package sat.formula;
+
+import sat.env.Variable;
+
+/**
+ * An Expr is an immutable boolean expression over variables, not restricted
+ * to conjunctive normal form. Expressions are built by an ExprFactory, which
+ * hash-conses them: a factory makes exactly one object for each distinct
+ * expression, so that shared subexpressions form a DAG and can be compared
+ * with ==.
+ *
+ * Unlike Formula.or and Formula.not, building an expression never
+ * distributes anything: its size is the size of what the client wrote. It
+ * is only turned into clauses, of linear size, when handed to a solver (see
+ * SATSolver.solve(Expr)).
+ *
+ * Datatype definition:
+ *      Expr = Var(v:Variable) + Not(e:Expr) + And(es:Expr[]) + Or(es:Expr[])
+ *             + True + False
+ */
+public final class Expr {
+    /**
+     * The kind of node at the root of an expression.
+     */
+    public enum Kind {
+        VAR, NOT, AND, OR, TRUE, FALSE
+    }
+
+    private static final Expr[] NO_CHILDREN = new Expr[0];
+
+    private final Kind kind;
+    private final Variable variable;
+    private final Expr[] children;
+    private final int id;
+    private final int hash;
+    // Rep invariant:
+    //      variable != null iff kind == VAR
+    //      children.length == 1 if kind == NOT, children.length >= 2 if
+    //      kind is AND or OR, and children.length == 0 otherwise
+    //      the children of an AND or OR are distinct and sorted by id
+    //      id is unique among the expressions of one factory
+    //
+    // Abstraction function: the expression of the datatype definition given
+    // by kind, with variable and children as its arguments
+
+    void checkRep() {
+        assert (variable != null) == (kind == Kind.VAR) : "Expr, Rep invariant: variable iff VAR";
+        for (int i = 1; i < children.length; i++) {
+            assert children[i - 1].id < children[i].id : "Expr, Rep invariant: children sorted";
+        }
+    }
+
+    // should only be used by ExprFactory
+    Expr(Kind kind, Variable variable, Expr[] children, int id) {
+        this.kind = kind;
+        this.variable = variable;
+        this.children = children == null ? NO_CHILDREN : children;
+        this.id = id;
+        int h = kind.ordinal();
+        if (variable != null) {
+            h = 31 * h + variable.hashCode();
+        }
+        for (Expr child : this.children) {
+            h = 31 * h + child.id;
+        }
+        this.hash = h;
+        checkRep();
+    }
+
+    /**
+     * @return the kind of this expression
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the variable of a VAR expression, null for other kinds
+     */
+    public Variable getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return number of operands of this expression
+     */
+    public int numChildren() {
+        return children.length;
+    }
+
+    /**
+     * @return operand i of this expression. Requires 0 <= i < numChildren()
+     */
+    public Expr getChild(int i) {
+        return children[i];
+    }
+
+    // id given by the factory, used to order operands
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Structural equality, used by ExprFactory to find existing expressions.
+     * Clients can use == on expressions of one factory.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Expr)) {
+            return false;
+        }
+        Expr e = (Expr) o;
+        if (kind != e.kind || hash != e.hash || children.length != e.children.length) {
+            return false;
+        }
+        if (variable != null && !variable.equals(e.variable)) {
+            return false;
+        }
+        // operands are hash-consed already, so identity is enough
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] != e.children[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case VAR:
+            return variable.toString();
+        case NOT:
+            return "~" + children[0];
+        case TRUE:
+            return "true";
+        case FALSE:
+            return "false";
+        default:
+            String op = kind == Kind.AND ? " & " : " | ";
+            StringBuilder s = new StringBuilder("(");
+            for (int i = 0; i < children.length; i++) {
+                if (i > 0) {
+                    s.append(op);
+                }
+                s.append(children[i]);
+            }
+            return s.append(")").toString();
+        }
+    }
+}
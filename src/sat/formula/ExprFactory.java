@@ -0,0 +1,175 @@
+package sat.formula;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sat.env.Variable;
+
+/**
+ * An ExprFactory builds hash-consed expressions: asking twice for the same
+ * expression returns the same object. It also applies a few simplifications
+ * that keep expressions small: double negations cancel, constants are folded,
+ * the operands of a conjunction or disjunction are deduplicated and sorted,
+ * and an operand together with its negation makes the whole conjunction
+ * false (disjunction true). Safe to use from several threads at once.
+ *
+ * Expressions of different factories must not be mixed.
+ */
+public class ExprFactory {
+    private static final Comparator<Expr> BY_ID = new Comparator<Expr>() {
+        public int compare(Expr a, Expr b) {
+            return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentMap<Expr, Expr> table = new ConcurrentHashMap<Expr, Expr>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Expr trueExpr;
+    private final Expr falseExpr;
+    // Rep invariant: table maps every expression made by this factory to
+    // itself, and the expressions it holds have distinct ids
+
+    public ExprFactory() {
+        trueExpr = intern(Expr.Kind.TRUE, null, null);
+        falseExpr = intern(Expr.Kind.FALSE, null, null);
+    }
+
+    /**
+     * @return the constant expression b
+     */
+    public Expr constant(boolean b) {
+        return b ? trueExpr : falseExpr;
+    }
+
+    /**
+     * @return the expression made of variable v alone
+     */
+    public Expr var(Variable v) {
+        return intern(Expr.Kind.VAR, v, null);
+    }
+
+    /**
+     * @return the expression made of the variable with the given name alone
+     */
+    public Expr var(String name) {
+        return var(new Variable(name));
+    }
+
+    /**
+     * @return the expression made of literal l alone
+     */
+    public Expr literal(Literal l) {
+        Expr e = var(l.getVariable());
+        return l.isPositive() ? e : not(e);
+    }
+
+    /**
+     * @return the negation of e
+     */
+    public Expr not(Expr e) {
+        switch (e.getKind()) {
+        case TRUE:
+            return falseExpr;
+        case FALSE:
+            return trueExpr;
+        case NOT:
+            return e.getChild(0);
+        default:
+            return intern(Expr.Kind.NOT, null, new Expr[] { e });
+        }
+    }
+
+    /**
+     * @return the conjunction of es, which is true if es is empty
+     */
+    public Expr and(Expr... es) {
+        return junction(Expr.Kind.AND, es);
+    }
+
+    /**
+     * @return the conjunction of es, which is true if es is empty
+     */
+    public Expr and(List<Expr> es) {
+        return and(es.toArray(new Expr[es.size()]));
+    }
+
+    /**
+     * @return the disjunction of es, which is false if es is empty
+     */
+    public Expr or(Expr... es) {
+        return junction(Expr.Kind.OR, es);
+    }
+
+    /**
+     * @return the disjunction of es, which is false if es is empty
+     */
+    public Expr or(List<Expr> es) {
+        return or(es.toArray(new Expr[es.size()]));
+    }
+
+    /**
+     * @return the expression that is true iff a implies b
+     */
+    public Expr implies(Expr a, Expr b) {
+        return or(not(a), b);
+    }
+
+    /**
+     * @return the expression that is true iff a and b have the same value
+     */
+    public Expr iff(Expr a, Expr b) {
+        return and(implies(a, b), implies(b, a));
+    }
+
+    /**
+     * @return number of distinct expressions made by this factory
+     */
+    public int size() {
+        return table.size();
+    }
+
+    // the conjunction (AND) or disjunction (OR) of es, simplified
+    private Expr junction(Expr.Kind kind, Expr[] es) {
+        Expr identity = kind == Expr.Kind.AND ? trueExpr : falseExpr;
+        Expr absorbing = kind == Expr.Kind.AND ? falseExpr : trueExpr;
+        Set<Expr> seen = new HashSet<Expr>();
+        Expr[] operands = new Expr[es.length];
+        int n = 0;
+        for (Expr e : es) {
+            if (e == absorbing) {
+                return absorbing;
+            }
+            if (e != identity && seen.add(e)) {
+                operands[n++] = e;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            Expr e = operands[i];
+            if (e.getKind() == Expr.Kind.NOT && seen.contains(e.getChild(0))) {
+                return absorbing;
+            }
+        }
+        if (n == 0) {
+            return identity;
+        }
+        if (n == 1) {
+            return operands[0];
+        }
+        Expr[] sorted = Arrays.copyOf(operands, n);
+        Arrays.sort(sorted, BY_ID);
+        return intern(kind, null, sorted);
+    }
+
+    // the existing expression equal to the given one, or a new one
+    private Expr intern(Expr.Kind kind, Variable variable, Expr[] children) {
+        Expr candidate = new Expr(kind, variable, children, nextId.getAndIncrement());
+        Expr previous = table.putIfAbsent(candidate, candidate);
+        return previous == null ? candidate : previous;
+    }
+}
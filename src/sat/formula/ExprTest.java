@@ -0,0 +1,50 @@
+package sat.formula;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ExprTest {
+    ExprFactory f = new ExprFactory();
+    Expr a = f.var("a");
+    Expr b = f.var("b");
+    Expr c = f.var("c");
+
+    // make sure assertions are turned on!
+    // we don't want to run test cases without assertions too.
+    // see the handout to find out how to turn them on.
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false;
+    }
+
+    @Test
+    public void hashConsingTest() {
+        // same expression, operands in any order, gives the same object
+        assertSame(a, f.var("a"));
+        assertSame(f.and(a, f.or(b, c)), f.and(f.or(c, b), a));
+        assertNotSame(f.and(a, b), f.or(a, b));
+    }
+
+    @Test
+    public void simplificationTest() {
+        assertSame(a, f.not(f.not(a)));
+        assertSame(a, f.and(a, a, f.constant(true)));
+        assertSame(f.constant(false), f.and(a, b, f.not(a)));
+        assertSame(f.constant(true), f.or(a, f.constant(true)));
+        assertSame(f.constant(true), f.and());
+        assertSame(f.constant(false), f.or());
+        assertSame(f.constant(true), f.not(f.constant(false)));
+    }
+
+    @Test
+    public void structureTest() {
+        Expr e = f.or(a, f.not(b));
+        assertEquals(Expr.Kind.OR, e.getKind());
+        assertEquals(2, e.numChildren());
+        Expr nb = e.getChild(0) == a ? e.getChild(1) : e.getChild(0);
+        assertEquals(Expr.Kind.NOT, nb.getKind());
+        assertSame(b, nb.getChild(0));
+        assertEquals("b", nb.getChild(0).getVariable().getName());
+    }
+}
@@ -11,7 +11,10 @@ import immutable.Empty;
 import immutable.ImList;
 import immutable.ImListIterator;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import sat.env.Variable;
 
@@ -29,11 +32,40 @@ import sat.env.Variable;
  *           
  */
 public class Formula implements Iterable<Clause> {
+    /**
+     * Ways of encoding cardinality constraints as clauses. All but PAIRWISE
+     * introduce auxiliary variables, in exchange for far fewer clauses on
+     * long lists of literals:
+     * 
+     *  PAIRWISE    no auxiliaries, n(n-1)/2 clauses
+     *  SEQUENTIAL  sequential counter, n-1 auxiliaries, 3n-4 clauses
+     *  COMMANDER   commanders over groups of 3, about n/2 auxiliaries
+     *  PRODUCT     2D grid of sqrt(n) x sqrt(n), about 2 sqrt(n) auxiliaries
+     *  BIMANDER    binary-coded groups of 3, log2(n/3) auxiliaries
+     *  
+     * For atMostK with k > 1, PAIRWISE forbids every subset of k+1 literals
+     * and the other encodings all use the sequential counter.
+     */
+    public enum Encoding {
+        PAIRWISE, SEQUENTIAL, COMMANDER, PRODUCT, BIMANDER
+    }
+
     private final ImList<Clause> clauses;
+    // conjoined formulas, so that and takes constant time
+    private final Formula left;
+    private final Formula right;
     private final int size;
+    // all clauses as one list, built on the first call to getClauses.
+    // Volatile, since Cons has no final fields: without it, another thread
+    // could see the list before its nodes are filled in. Racing threads may
+    // each build it, but they build equal lists
+    private volatile ImList<Clause> flattened;
     // Rep invariant:
     //      clauses != null
     //      clauses contains no null elements (ensured by spec of ImList)
+    //      left == null iff right == null
+    //      size == clauses.size() + left.size + right.size (when non-null)
+    //      flattened == null, or it holds the same clauses as this
     //
     // Note: although a formula is intended to be a set,  
     // the list may include duplicate clauses without any problems. 
@@ -42,13 +74,15 @@ public class Formula implements Iterable<Clause> {
     //    
     //    Abstraction function:
     //        The list of clauses c1,c2,...,cn represents 
-    //        the boolean formula (c1 and c2 and ... and cn)
+    //        the boolean formula (c1 and c2 and ... and cn),
+    //        conjoined with left and right when they are non-null
     //        
     //        For example, if the list contains the two clauses (a,b) and (!c,d), then the
     //        corresponding formula is (a or b) and (!c or d).
 
     void checkRep() {
         assert this.clauses != null : "SATProblem, Rep invariant: clauses non-null";
+        assert (left == null) == (right == null) : "SATProblem, Rep invariant: both or no operands";
     }
     
     /**
@@ -60,8 +94,17 @@ public class Formula implements Iterable<Clause> {
      */
     
     private Formula(ImList<Clause> clauses) {
-        size = clauses.size();
+        this(clauses, null, null);
+    }
+
+    /**
+     * Private function which creates the conjunction of clauses, left and right
+     */
+    private Formula(ImList<Clause> clauses, Formula left, Formula right) {
         this.clauses = clauses;
+        this.left = left;
+        this.right = right;
+        size = clauses.size() + (left == null ? 0 : left.size + right.size);
         checkRep();
     }
     
@@ -74,7 +117,9 @@ public class Formula implements Iterable<Clause> {
      */
     private Formula(Formula formula){
         size = formula.size;
-        clauses = formula.getClauses();
+        clauses = formula.clauses;
+        left = formula.left;
+        right = formula.right;
         checkRep();
     }
 
@@ -88,6 +133,8 @@ public class Formula implements Iterable<Clause> {
         // an empty formula is always true
         size = 0;
         clauses = new Empty<Clause>();
+        left = null;
+        right = null;
         checkRep();
     }
 
@@ -111,6 +158,8 @@ public class Formula implements Iterable<Clause> {
     public Formula(Clause c) {       
         clauses = new Cons<Clause>(c);
         size = clauses.size();
+        left = null;
+        right = null;
         checkRep();
 
     }
@@ -122,7 +171,7 @@ public class Formula implements Iterable<Clause> {
      */
     public Formula addClause(Clause c) {     
         
-        return new Formula((clauses).addToFront(c));
+        return new Formula(clauses.addToFront(c), left, right);
     }
 
     /**
@@ -131,7 +180,22 @@ public class Formula implements Iterable<Clause> {
      * @return list of clauses
      */
     public ImList<Clause> getClauses() {
-        return clauses;
+        if (left == null) {
+            return clauses;
+        }
+        ImList<Clause> list = flattened;
+        if (list == null) {
+            List<Clause> all = new ArrayList<Clause>(size);
+            for (Clause c : this) {
+                all.add(c);
+            }
+            list = new Empty<Clause>();
+            for (int i = all.size() - 1; i >= 0; i--) {
+                list = list.addToFront(all.get(i));
+            }
+            flattened = list;
+        }
+        return list;
     }
 
     /**
@@ -141,29 +205,73 @@ public class Formula implements Iterable<Clause> {
      *         order
      */
     public Iterator<Clause> iterator() {
-        return new ImListIterator<Clause>(clauses);        
+        if (left == null) {
+            return new ImListIterator<Clause>(clauses);
+        }
+        return new ConjunctionIterator(this);
+    }
+
+    /**
+     * Iterates over the clauses of a formula and all its operands, keeping
+     * the operands still to visit on an explicit stack: formulas built by
+     * long chains of and are too deep to walk recursively.
+     */
+    private static class ConjunctionIterator implements Iterator<Clause> {
+        private final List<Formula> pending = new ArrayList<Formula>();
+        private Iterator<Clause> current;
+
+        ConjunctionIterator(Formula f) {
+            pending.add(f);
+            current = new Empty<Clause>().iterator();
+        }
+
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                Formula f = pending.remove(pending.size() - 1);
+                if (f.left != null) {
+                    pending.add(f.right);
+                    pending.add(f.left);
+                }
+                current = new ImListIterator<Clause>(f.clauses);
+            }
+            return true;
+        }
+
+        public Clause next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     /**
+     * Takes constant time: the result shares this and p rather than copying
+     * their clauses.
+     * 
      * @return a new problem corresponding to the conjunction of this and p
      */
     public Formula and(Formula p) {
-        Iterator<Clause> thisIterator = this.iterator();
-        Iterator<Clause> pIterator = p.iterator();
-        
-        // Use iterators to build new ANDed problem.
-        Formula result = new Formula();
-        while(thisIterator.hasNext()){
-            result = result.addClause(thisIterator.next());
+        if (p.size == 0) {
+            return this;
         }
-        while(pIterator.hasNext()){
-            result = result.addClause(pIterator.next());
+        if (size == 0) {
+            return p;
         }
-        return result;
-     
+        return new Formula(new Empty<Clause>(), this, p);
     }
 
     /**
+     * Distributes, so the result can be exponentially larger than this and
+     * p; use an Expr for constraints that are not naturally in CNF.
+     * 
      * @return a new problem corresponding to the disjunction of this and p
      */
     public Formula or(Formula p) {
@@ -223,6 +331,9 @@ public class Formula implements Iterable<Clause> {
     }
 
     /**
+     * Distributes, so the result can be exponentially larger than this; use
+     * an Expr for constraints that are not naturally in CNF.
+     * 
      * @return a new problem corresponding to the negation of this
      */
     public Formula not() {
@@ -266,6 +377,61 @@ public class Formula implements Iterable<Clause> {
         
     }
 
+    /**
+     * Requires: literals contains no duplicates and no literal together with
+     * its negation
+     * 
+     * @return a problem that is satisfied when at most one of literals is true
+     */
+    public static Formula atMostOne(List<Literal> literals, Encoding encoding) {
+        return Cardinality.atMostOne(new Formula(), literals, encoding);
+    }
+
+    /**
+     * Same as atMostOne(literals, Encoding.PAIRWISE)
+     */
+    public static Formula atMostOne(List<Literal> literals) {
+        return atMostOne(literals, Encoding.PAIRWISE);
+    }
+
+    /**
+     * Requires: literals contains no duplicates and no literal together with
+     * its negation
+     * 
+     * @return a problem that is satisfied when exactly one of literals is true
+     */
+    public static Formula exactlyOne(List<Literal> literals, Encoding encoding) {
+        Clause atLeastOne = new Clause();
+        for (Literal l : literals) {
+            atLeastOne = atLeastOne.add(l);
+        }
+        return atMostOne(literals, encoding).addClause(atLeastOne);
+    }
+
+    /**
+     * Same as exactlyOne(literals, Encoding.PAIRWISE)
+     */
+    public static Formula exactlyOne(List<Literal> literals) {
+        return exactlyOne(literals, Encoding.PAIRWISE);
+    }
+
+    /**
+     * Requires: k >= 0, literals contains no duplicates and no literal
+     * together with its negation
+     * 
+     * @return a problem that is satisfied when at most k of literals are true
+     */
+    public static Formula atMostK(List<Literal> literals, int k, Encoding encoding) {
+        return Cardinality.atMostK(new Formula(), literals, k, encoding);
+    }
+
+    /**
+     * Same as atMostK(literals, k, Encoding.SEQUENTIAL)
+     */
+    public static Formula atMostK(List<Literal> literals, int k) {
+        return atMostK(literals, k, Encoding.SEQUENTIAL);
+    }
+
     /**
      * 
      * @return number of clauses in this
@@ -279,7 +445,7 @@ public class Formula implements Iterable<Clause> {
      */
     public String toString() {
         String result = "Problem[";
-        for (Clause c : clauses)
+        for (Clause c : this)
             result += "\n" + c;
         return result + "]";
     }
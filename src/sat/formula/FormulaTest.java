@@ -2,7 +2,11 @@ package sat.formula;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import immutable.Cons;
 import immutable.Empty;
@@ -567,6 +571,137 @@ public class FormulaTest {
     } 
     
     
+    @Test
+    public void atMostOnePairwiseTest(){
+        // AtMostOne[a,b,c] should return Problem[[~a,~b][~a,~c][~b,~c]]
+        Formula result = Formula.atMostOne(list(a, b, c));
+        
+        Formula expected = new Formula(make(na, nb)).addClause(make(na, nc)).addClause(make(nb, nc));
+        
+        assertTrue(clauseListEqual(expected.getClauses(),result.getClauses()));
+    }
+    
+    @Test
+    public void exactlyOnePairwiseTest(){
+        // ExactlyOne[a,b] should return Problem[[~a,~b][a,b]]
+        Formula result = Formula.exactlyOne(list(a, b));
+        
+        Formula expected = new Formula(make(na, nb)).addClause(make(a, b));
+        
+        assertTrue(clauseListEqual(expected.getClauses(),result.getClauses()));
+    }
+    
+    @Test
+    public void atMostOneSequentialTest(){
+        // the sequential counter uses n-1 auxiliary variables and 3n-4 clauses
+        List<Literal> literals = new ArrayList<Literal>();
+        for(int i = 0; i < 10; i++)
+            literals.add(PosLiteral.make("x" + i));
+        Formula result = Formula.atMostOne(literals, Formula.Encoding.SEQUENTIAL);
+        
+        assertEquals(26, result.getSize());
+    }
+    
+    @Test
+    public void atMostOneBruteForceTest(){
+        // projected onto the inputs, each encoding allows exactly the
+        // assignments with at most one true input; 8 inputs are enough to
+        // get past the pairwise fallback of the recursive encodings
+        List<Literal> literals = new ArrayList<Literal>();
+        for(int i = 0; i < 8; i++)
+            literals.add(PosLiteral.make("x" + i));
+        for(Formula.Encoding encoding : Formula.Encoding.values()){
+            boolean[] allowed = projectedModels(Formula.atMostOne(literals, encoding), literals);
+            for(int m = 0; m < 1 << 8; m++)
+                assertEquals(encoding + " " + Integer.toBinaryString(m), Integer.bitCount(m) <= 1, allowed[m]);
+        }
+    }
+
+    @Test
+    public void auxiliaryNameTest(){
+        // a variable named like an auxiliary is not one: AtMostOne of
+        // _aux0.._aux7 still allows each of them alone. The auxiliaries
+        // are not kept by the shared factory of PosLiteral.make
+        List<Literal> literals = new ArrayList<Literal>();
+        for(int i = 0; i < 8; i++)
+            literals.add(PosLiteral.make("_aux" + i));
+        int before = PosLiteral.make("_aux0").getFactory().size();
+        Formula result = Formula.atMostOne(literals, Formula.Encoding.SEQUENTIAL);
+
+        assertEquals(before, PosLiteral.make("_aux0").getFactory().size());
+        boolean[] allowed = projectedModels(result, literals);
+        for(int i = 0; i < 8; i++)
+            assertTrue(allowed[1 << i]);
+        assertFalse(allowed[3]);
+    }
+
+    @Test
+    public void atMostKTrivialTest(){
+        // AtMost2[a,b] is always true, AtMost0[a,b] forces both false
+        assertTrue(clauseListEqual(new Formula().getClauses(),Formula.atMostK(list(a, b), 2).getClauses()));
+        
+        Formula expected = new Formula(make(na)).addClause(make(nb));
+        assertTrue(clauseListEqual(expected.getClauses(),Formula.atMostK(list(a, b), 0).getClauses()));
+    }
+    
+    @Test
+    public void atMostKPairwiseTest(){
+        // AtMost2[a,b,c] pairwise should return Problem[[~a,~b,~c]]
+        Formula result = Formula.atMostK(list(a, b, c), 2, Formula.Encoding.PAIRWISE);
+        
+        Formula expected = new Formula(make(na, nb, nc));
+        
+        assertTrue(clauseListEqual(expected.getClauses(),result.getClauses()));
+    }
+
+    @Test
+    public void andLongChainTest(){
+        // a long chain of ands, then clauses added to the result: every
+        // clause must be seen once, without overflowing the stack
+        Formula result = new Formula();
+        for(int i = 0; i < 100000; i++)
+            result = result.and(new Formula(make(PosLiteral.make("y" + (i % 100)))));
+        result = result.addClause(make(a)).and(new Formula(make(b)));
+
+        assertEquals(100002, result.getSize());
+        int n = 0;
+        for(Clause clause : result)
+            n++;
+        assertEquals(100002, n);
+        assertEquals(100002, result.getClauses().size());
+        assertTrue(result.getClauses().contains(make(a)));
+    }
+
+    // allowed[m] is true iff some assignment of the other variables of
+    // formula, together with inputs[i] true iff bit i of m is set,
+    // satisfies all its clauses
+    private boolean[] projectedModels(Formula formula, List<Literal> inputs){
+        Map<Variable, Integer> index = new HashMap<Variable, Integer>();
+        for(Literal l : inputs)
+            index.put(l.getVariable(), index.size());
+        for(Clause clause : formula)
+            for(Literal l : clause)
+                if(!index.containsKey(l.getVariable()))
+                    index.put(l.getVariable(), index.size());
+        int n = inputs.size();
+        boolean[] allowed = new boolean[1 << n];
+        for(long m = 0; m < 1L << index.size(); m++){
+            boolean satisfied = true;
+            for(Clause clause : formula){
+                boolean any = false;
+                for(Literal l : clause)
+                    any |= ((m >> index.get(l.getVariable())) & 1) == (l.isPositive() ? 1 : 0);
+                if(!any){
+                    satisfied = false;
+                    break;
+                }
+            }
+            if(satisfied)
+                allowed[(int) (m & ((1 << n) - 1))] = true;
+        }
+        return allowed;
+    }
+
     // Simple helper function to test the equality of ImLists of Clauses
     private boolean clauseListEqual(ImList<Clause> aList,ImList<Clause> bList){
         
@@ -593,4 +728,13 @@ public class FormulaTest {
         }
         return c;
     }
-}
\ No newline at end of file
+    
+    // Helper function for constructing a list of literals
+    private List<Literal> list(Literal... e) {
+        List<Literal> result = new ArrayList<Literal>();
+        for (int i = 0; i < e.length; ++i) {
+            result.add(e[i]);
+        }
+        return result;
+    }
+}
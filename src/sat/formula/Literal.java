@@ -35,7 +35,7 @@ public abstract class Literal {
 
     void checkRep () {
         assert this.getNegation().getNegation() == this : "Variable, Rep invariant: negation of negation";
-        assert this.getNegation().var.getName().equals(var.getName()) : "Variable, Rep invariant: names match";
+        assert this.getNegation().var.equals(var) : "Variable, Rep invariant: variables match";
     }
 
     Literal (String name) {
@@ -60,6 +60,13 @@ public abstract class Literal {
         return negation;
     }
 
+    /**
+     * @return the factory that made this literal and its negation
+     */
+    LiteralFactory getFactory () {
+        return isPositive() ? ((PosLiteral) this).factory : ((PosLiteral) negation).factory;
+    }
+
     /**
      * @return true iff literal corresponds to the negation of this
      */
@@ -0,0 +1,94 @@
+package sat.formula;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import sat.env.Variable;
+import sat.env.VariableRegistry;
+
+/**
+ * A LiteralFactory interns literals: it hands out exactly one PosLiteral and
+ * one NegLiteral object per variable, so that literals it made can be
+ * compared with ==. It is safe to use from several threads at once.
+ *
+ * Literals made by different factories are distinct objects even when their
+ * names are equal, so a formula must be built from the literals of a single
+ * factory. A factory can be scoped to one formula or solver and is garbage
+ * collected along with it; PosLiteral.make and NegLiteral.make use a shared
+ * factory that lives as long as the program.
+ */
+public class LiteralFactory {
+    /*
+     * Rep invariant: no key or value of allocated is null, and
+     * allocated.get(v).getVariable().equals(v) for every key v
+     */
+    private final ConcurrentMap<Variable, PosLiteral> allocated = new ConcurrentHashMap<Variable, PosLiteral>();
+
+    /**
+     * @return the positive literal of var made by this factory
+     */
+    public PosLiteral pos(Variable var) {
+        PosLiteral literal = allocated.get(var);
+        if (literal != null) {
+            return literal;
+        }
+        literal = pair(var);
+        // another thread may have made the same literal in the meantime
+        PosLiteral previous = allocated.putIfAbsent(var, literal);
+        if (previous != null) {
+            return previous;
+        }
+        return literal;
+    }
+
+    /**
+     * @return the positive literal of a new variable of registry, made by
+     *         this factory but not kept in it. Since the variable is new,
+     *         no other literal of it can exist, and the caller must reuse
+     *         this literal rather than ask for it again by variable. Used
+     *         for auxiliary variables, so that they are never confused with
+     *         a variable of the same name, and so that this factory does
+     *         not keep them for as long as it lives.
+     */
+    PosLiteral fresh(VariableRegistry registry) {
+        return pair(registry.fresh());
+    }
+
+    // a new positive literal of var and its negation
+    private PosLiteral pair(Variable var) {
+        PosLiteral literal = new PosLiteral(var, this);
+        NegLiteral negated = new NegLiteral(var);
+        literal.negation = negated;
+        negated.negation = literal;
+        literal.checkRep();
+        return literal;
+    }
+
+    /**
+     * @return the positive literal with the given name made by this factory
+     */
+    public PosLiteral pos(String name) {
+        return pos(new Variable(name));
+    }
+
+    /**
+     * @return the negative literal of var made by this factory
+     */
+    public NegLiteral neg(Variable var) {
+        return (NegLiteral) pos(var).getNegation();
+    }
+
+    /**
+     * @return the negative literal with the given name made by this factory
+     */
+    public NegLiteral neg(String name) {
+        return neg(new Variable(name));
+    }
+
+    /**
+     * @return number of variables for which this factory has made literals
+     */
+    public int size() {
+        return allocated.size();
+    }
+}
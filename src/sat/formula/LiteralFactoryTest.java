@@ -0,0 +1,84 @@
+package sat.formula;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LiteralFactoryTest {
+    // make sure assertions are turned on!
+    // we don't want to run test cases without assertions too.
+    // see the handout to find out how to turn them on.
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false;
+    }
+
+    @Test
+    public void internTest() {
+        LiteralFactory factory = new LiteralFactory();
+        Literal p = factory.pos("P");
+        assertSame(p, factory.pos("P"));
+        assertSame(p.getNegation(), factory.neg("P"));
+        assertTrue(p.negates(factory.neg("P")));
+        assertEquals(1, factory.size());
+    }
+
+    @Test
+    public void scopedTest() {
+        // literals of different factories are distinct, but their variables
+        // are equal
+        Literal p1 = new LiteralFactory().pos("P");
+        Literal p2 = new LiteralFactory().pos("P");
+        assertNotSame(p1, p2);
+        assertNotSame(p1, PosLiteral.make("P"));
+        assertEquals(p1.getVariable(), p2.getVariable());
+    }
+
+    @Test
+    public void auxiliaryLiteralsTest() {
+        // auxiliary literals of an encoding come from the factory of its
+        // inputs, which does not keep them: only the 10 inputs are interned
+        LiteralFactory factory = new LiteralFactory();
+        List<Literal> ls = new ArrayList<Literal>();
+        for (int i = 0; i < 10; i++) {
+            ls.add(factory.pos("x" + i));
+        }
+        Formula result = Formula.atMostOne(ls, Formula.Encoding.SEQUENTIAL);
+        for (Clause c : result) {
+            for (Literal l : c) {
+                assertSame(factory, l.getFactory());
+            }
+        }
+        assertEquals(10, factory.size());
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        final LiteralFactory factory = new LiteralFactory();
+        final Literal[][] made = new Literal[4][1000];
+        Thread[] threads = new Thread[made.length];
+        for (int t = 0; t < threads.length; t++) {
+            final Literal[] mine = made[t];
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < mine.length; i++) {
+                        mine[i] = factory.neg("v" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 1; t < made.length; t++) {
+            for (int i = 0; i < made[t].length; i++) {
+                assertSame(made[0][i], made[t][i]);
+            }
+        }
+        assertEquals(1000, factory.size());
+    }
+}
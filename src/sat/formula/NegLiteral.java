@@ -17,12 +17,12 @@ import sat.env.Variable;
 public class NegLiteral extends Literal {
 
     // should NOT be used by clients
-    NegLiteral(String name) {
-        super(name);
+    NegLiteral(Variable var) {
+        super(var);
     }
 
     public static NegLiteral make (Variable var) {
-        return make(var.getName());
+        return (NegLiteral) PosLiteral.make(var).getNegation();
     }
     
     public static NegLiteral make (String name) {
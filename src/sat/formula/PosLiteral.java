@@ -6,8 +6,6 @@
  */
 package sat.formula;
 
-import immutable.AssocList;
-import immutable.ImMap;
 import sat.env.Variable;
 
 /**
@@ -17,35 +15,31 @@ import sat.env.Variable;
  */
 public class PosLiteral extends Literal {
     /* 
-     * Mapping of positive literals that have already been allocated, keyed on their names
-     * Invariant: non null, and no key or value is null
+     * Factory shared by all clients of make
      */
-    static ImMap<String,PosLiteral> allocatedPosLiterals = new AssocList<String,PosLiteral>();
+    private static final LiteralFactory sharedFactory = new LiteralFactory();
 
-    private PosLiteral (String name) {
-        super (name);
+    // factory that made this literal
+    final LiteralFactory factory;
+
+    // should NOT be used by clients
+    PosLiteral (Variable var, LiteralFactory factory) {
+        super (var);
+        this.factory = factory;
     }    
     
     public static PosLiteral make (Variable var) {
-        return make(var.getName());
+        return sharedFactory.pos(var);
     }
         
     /**
      * Factory method. Preserves the invariant that only one object
-     * will exist to represent a literal of a given name. 
+     * will exist to represent a literal of a given name, among those
+     * made by this method. Thread-safe.
      * @return the positive literal with the given name
      */
     public static PosLiteral make (String name) {
-        PosLiteral literal = allocatedPosLiterals.get(name);
-        if (literal==null) {
-            literal = new PosLiteral(name);
-            NegLiteral negated = new NegLiteral(name);
-            literal.negation = negated;
-            negated.negation = literal;
-            allocatedPosLiterals = allocatedPosLiterals.put(name, literal);
-        }
-        literal.checkRep(); 
-        return literal;
+        return sharedFactory.pos(name);
     }
 
     public String toString () {
@@ -0,0 +1,481 @@
+package sudoku;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import sudoku.Sudoku.ParseException;
+
+/**
+ * Solves a stream of puzzles written one per line, as in the usual puzzle
+ * corpus files: 81 characters for a 9x9 puzzle (or 16 for a 4x4), row by
+ * row, with '.' or '0' for blanks. For each puzzle, in input order, it
+ * writes a line with the puzzle, a comma, and the solution in the same
+ * format, or "none" if it has no solution. Blank lines are skipped.
+ *
+ * Input and output go through byte channels and buffers that are reused
+ * from line to line, and squares are decoded and encoded by GridFormat.LINE,
+ * so that no String is made per puzzle.
+ *
+ * Lines are read into chunks of 64 puzzles, each solved by a BatchSolver on
+ * a fixed pool of worker threads. Chunks finish out of order; they wait in
+ * a reorder buffer until all the chunks before them have been written. At
+ * most maxInFlight chunks are read and not yet written at any time: the
+ * reader blocks when the limit is reached, which bounds both the work
+ * queue and the reorder buffer however large the input is.
+ *
+ * A BatchPipeline runs once; use run(...) to create and run one.
+ */
+class BatchPipeline {
+    private static final int CHUNK = 64;
+    // initial size of the input buffer, which grows to hold a whole line
+    private static final int BUFFER = 1 << 16;
+    private static final byte[] NONE = { 'n', 'o', 'n', 'e', '\n' };
+
+    private final WritableByteChannel out;
+    private final ExecutorService pool;
+    private final Semaphore permits;
+    // one BatchSolver per worker thread, for the dimension of the input
+    private final ThreadLocal<BatchSolver> solvers;
+    private int dim;
+    // number of chunks handed to the pool, used by the reader only
+    private long submitted;
+    // the grid being read, used by the reader only
+    private short[] parsed;
+    // reorder buffer: the chunk with sequence number s waits in
+    // slots[s % slots.length] until chunk next is written
+    private final Chunk[] slots;
+    private long next;
+    private long end = -1;
+    // first error met by a worker or the writer
+    private Throwable failure;
+    private final Report report = new Report();
+    // Rep invariant:
+    //      every chunk read and not yet written holds one of the
+    //      slots.length permits, so chunks in the buffer have sequence
+    //      numbers from next to next + slots.length - 1, in distinct slots
+
+    /**
+     * Solve every puzzle read from in and write the results to out.
+     *
+     * @param threads
+     *            number of worker threads. Requires threads > 0
+     * @param maxInFlight
+     *            number of chunks of 64 puzzles that may be read and not yet
+     *            written at any time. Requires maxInFlight > 0
+     * @return the number of puzzles, throughput and latencies of the run.
+     *         Latency is the time from reading a puzzle to writing its
+     *         result.
+     * @throws IOException
+     *             if reading or writing fails
+     * @throws ParseException
+     *             if a line is not a puzzle, or not of the same size as the
+     *             first one. Results may have been written for some of the
+     *             lines before it.
+     * 
+     *             Any runtime exception or error thrown while solving a
+     *             chunk is rethrown here too, rather than reported as
+     *             unsolved puzzles.
+     */
+    static Report run(ReadableByteChannel in, WritableByteChannel out, int threads,
+            int maxInFlight) throws IOException, ParseException {
+        final BatchPipeline pipeline = new BatchPipeline(out, threads, maxInFlight);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                pipeline.writeAll();
+            }
+        }, "batch-writer");
+        writer.start();
+        try {
+            pipeline.read(in);
+        } finally {
+            // on errors too, so that the writer stops after the chunks
+            // handed out so far
+            pipeline.finish(pipeline.submitted);
+            pipeline.pool.shutdown();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing results");
+            }
+        }
+        pipeline.rethrow();
+        return pipeline.report;
+    }
+
+    private BatchPipeline(WritableByteChannel out, int threads, int maxInFlight) {
+        this.out = out;
+        pool = Executors.newFixedThreadPool(threads);
+        permits = new Semaphore(maxInFlight);
+        slots = new Chunk[maxInFlight];
+        solvers = new ThreadLocal<BatchSolver>() {
+            protected BatchSolver initialValue() {
+                return new BatchSolver(dim);
+            }
+        };
+    }
+
+    /*
+     * Read puzzles into chunks and hand each full chunk to the pool, blocking
+     * while maxInFlight chunks are in flight. Stops early if the writer has
+     * failed. Lines are found in a buffer refilled from in, which is
+     * compacted, and grown if a line does not fit, only when the line at
+     * its position is incomplete.
+     */
+    private void read(ReadableByteChannel in) throws IOException, ParseException {
+        Chunk chunk = null;
+        long sequence = 0;
+        int lineNumber = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        buffer.flip();
+        boolean eof = false;
+        while (true) {
+            int start = buffer.position();
+            int end = GridFormat.lineEnd(buffer, start);
+            int limit = buffer.limit();
+            if (!eof && (end == limit || end == limit - 1 && buffer.get(end) == '\r')) {
+                // the line may go on past the end of the buffer, or its
+                // "\r" be followed by a "\n" not read yet
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(2 * buffer.capacity());
+                    buffer.flip();
+                    buffer = grown.put(buffer);
+                }
+                eof = in.read(buffer) == -1;
+                buffer.flip();
+                continue;
+            }
+            if (start == end && end == buffer.limit()) {
+                break;
+            }
+            lineNumber++;
+            if (isBlank(buffer, start, end)) {
+                buffer.position(GridFormat.nextLine(buffer, end));
+                continue;
+            }
+            if (dim == 0) {
+                dim = dimensionOf(end - start, lineNumber);
+                parsed = new short[dim * dim * dim * dim];
+            }
+            if (chunk == null) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading puzzles");
+                }
+                if (failed()) {
+                    permits.release();
+                    break;
+                }
+                chunk = new Chunk(sequence++, dim);
+            }
+            try {
+                GridFormat.LINE.parse(buffer, dim, parsed, 0);
+            } catch (ParseException e) {
+                throw new ParseException("Line " + lineNumber + ": " + e.getMessage());
+            }
+            chunk.add(buffer, start, parsed);
+            if (chunk.count == CHUNK) {
+                submit(chunk);
+                chunk = null;
+            }
+        }
+        if (chunk != null) {
+            submit(chunk);
+        }
+    }
+
+    // true iff buffer[start..end) holds only spaces, tabs and '\r'
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int p = start; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The dimension of puzzles with as many squares as a line of that length
+     * has characters: 2 for 16, 3 for 81.
+     */
+    private static int dimensionOf(int length, int lineNumber) throws ParseException {
+        for (int dim = 2; dim <= 3; dim++) {
+            if (length == dim * dim * dim * dim) {
+                return dim;
+            }
+        }
+        throw new ParseException("Line " + lineNumber + ": a puzzle has 16 or 81 squares, not "
+                + length);
+    }
+
+    private void submit(final Chunk chunk) {
+        submitted++;
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    chunk.solved = solvers.get().solve(chunk.grids, 0, chunk.count);
+                } catch (Throwable e) {
+                    // errors too, or the writer would take the chunk as
+                    // unsolved
+                    chunk.failure = e;
+                } finally {
+                    put(chunk);
+                }
+            }
+        });
+    }
+
+    private synchronized void put(Chunk chunk) {
+        slots[(int) (chunk.sequence % slots.length)] = chunk;
+        notifyAll();
+    }
+
+    // no chunks past the given number will come
+    private synchronized void finish(long chunks) {
+        end = chunks;
+        notifyAll();
+    }
+
+    private synchronized boolean failed() {
+        return failure != null;
+    }
+
+    // the next chunk in input order once it is solved, or null at the end
+    private synchronized Chunk take() throws InterruptedException {
+        while (true) {
+            if (next == end) {
+                return null;
+            }
+            int slot = (int) (next % slots.length);
+            Chunk chunk = slots[slot];
+            if (chunk != null) {
+                slots[slot] = null;
+                next++;
+                return chunk;
+            }
+            wait();
+        }
+    }
+
+    /*
+     * Write the chunks in input order as they are solved, until the end of
+     * the input. After an error, chunks are still taken, and their permits
+     * released, but no longer written.
+     */
+    private void writeAll() {
+        long started = System.nanoTime();
+        ByteBuffer buffer = null;
+        short[] solution = null;
+        try {
+            Chunk chunk;
+            while ((chunk = take()) != null) {
+                if (!failed()) {
+                    try {
+                        if (chunk.failure != null) {
+                            throw chunk.failure;
+                        }
+                        if (buffer == null) {
+                            // the longest line is the puzzle, a comma and
+                            // the solution
+                            buffer = ByteBuffer.allocate(CHUNK * (chunk.numCells + 1
+                                    + GridFormat.LINE.maxLength(dim)));
+                            solution = new short[chunk.numCells];
+                        }
+                        write(chunk, buffer, solution);
+                        long written = System.nanoTime();
+                        for (int l = 0; l < chunk.count; l++) {
+                            report.record(written - chunk.read[l], (chunk.solved & (1L << l)) != 0);
+                        }
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Interrupted while writing results"));
+        }
+        report.elapsed = System.nanoTime() - started;
+    }
+
+    private synchronized void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void write(Chunk chunk, ByteBuffer buffer, short[] solution) throws IOException {
+        int cells = chunk.numCells;
+        buffer.clear();
+        for (int l = 0; l < chunk.count; l++) {
+            buffer.put(chunk.text, l * cells, cells).put((byte) ',');
+            if ((chunk.solved & (1L << l)) != 0) {
+                for (int c = 0; c < cells; c++) {
+                    solution[c] = (short) (chunk.grids[l * cells + c] - 1);
+                }
+                GridFormat.LINE.format(solution, 0, dim, buffer);
+            } else {
+                buffer.put(NONE);
+            }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private void rethrow() throws IOException {
+        Throwable e;
+        synchronized (this) {
+            e = failure;
+        }
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
+
+    /*
+     * Up to 64 puzzles, read in a row, as a BatchSolver takes them.
+     */
+    private static class Chunk {
+        final long sequence;
+        final int numCells;
+        final byte[] grids;
+        // the puzzles as they were read, to be written back with the results
+        final byte[] text;
+        // when each puzzle was read, from System.nanoTime()
+        final long[] read = new long[CHUNK];
+        int count;
+        // set by the worker that solves the chunk
+        long solved;
+        Throwable failure;
+
+        Chunk(long sequence, int dim) {
+            this.sequence = sequence;
+            numCells = dim * dim * dim * dim;
+            grids = new byte[CHUNK * numCells];
+            text = new byte[CHUNK * numCells];
+        }
+
+        // add the puzzle parsed from the line at start of buffer, which is
+        // backed by an array
+        void add(ByteBuffer buffer, int start, short[] parsed) {
+            int base = count * numCells;
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + start, text, base, numCells);
+            for (int c = 0; c < numCells; c++) {
+                grids[base + c] = (byte) (parsed[c] + 1);
+            }
+            read[count] = System.nanoTime();
+            count++;
+        }
+    }
+
+    /**
+     * The outcome of a run: puzzles solved and not, throughput, and the
+     * distribution of latencies. Latencies are counted in buckets a sixteenth
+     * of a power of two wide, so percentiles are exact to within 1/16 while
+     * the memory used does not grow with the input.
+     */
+    static class Report {
+        // values below 16ns have a bucket each; then 16 buckets per power
+        // of two
+        private static final int SUB_BUCKETS = 16;
+        private final long[] buckets = new long[64 * SUB_BUCKETS];
+        private long puzzles;
+        private long solved;
+        private long maxLatency;
+        // wall-clock time of the run, in nanoseconds
+        private long elapsed;
+
+        private void record(long latency, boolean isSolved) {
+            puzzles++;
+            if (isSolved) {
+                solved++;
+            }
+            buckets[bucket(latency)]++;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(value, 0);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+            return (exponent - 3) * SUB_BUCKETS + sub;
+        }
+
+        // largest value in the given bucket
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 3;
+            long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 4);
+            return low + (1L << (exponent - 4)) - 1;
+        }
+
+        /**
+         * @return number of puzzles read
+         */
+        long getPuzzles() {
+            return puzzles;
+        }
+
+        /**
+         * @return number of puzzles that have a solution
+         */
+        long getSolved() {
+            return solved;
+        }
+
+        /**
+         * @return puzzles per second, over the whole run
+         */
+        double getThroughput() {
+            return elapsed == 0 ? 0 : puzzles * 1e9 / elapsed;
+        }
+
+        /**
+         * @param fraction
+         *            requires 0 < fraction <= 1, e.g. 0.99 for the 99th
+         *            percentile
+         * @return a latency, in nanoseconds, that at least that fraction of
+         *         the puzzles did not exceed, and is within 1/16 of the
+         *         smallest such latency; 0 if there were no puzzles
+         */
+        long getLatency(double fraction) {
+            long rank = (long) Math.ceil(fraction * puzzles);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(b), maxLatency);
+                }
+            }
+            return 0;
+        }
+
+        public String toString() {
+            return String.format("%d puzzles, %d solved, in %dms: %.0f puzzles/s%n"
+                    + "latency p50 %dus, p90 %dus, p99 %dus, p99.9 %dus, max %dus",
+                    puzzles, solved, elapsed / 1000000, getThroughput(),
+                    getLatency(0.5) / 1000, getLatency(0.9) / 1000, getLatency(0.99) / 1000,
+                    getLatency(0.999) / 1000, maxLatency / 1000);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package sudoku;
+
+/**
+ * Solves puzzles of one dimension 64 at a time, bitsliced: puzzle l of a
+ * batch is bit l of every word, and cands[c*size + k] has bit l set when
+ * digit k is still a candidate for cell c in puzzle l. Naked and hidden
+ * singles are then propagated for all 64 puzzles with the same word
+ * operations, to a common fixpoint. Most easy puzzles are solved by that
+ * alone; the few that need branching are handed to DirectSolver one by one,
+ * from where propagation left them.
+ *
+ * A BatchSolver holds the scratch state of one batch, so one instance must
+ * not be used by several threads at once.
+ */
+class BatchSolver {
+    private static final int LANES = 64;
+
+    private final int dim;
+    private final int size;
+    private final int numCells;
+    private final int numUnits;
+    // the cells of unit u are units[u*size .. (u+1)*size), from Geometry
+    private final int[] units;
+    // candidate lanes of each cell and digit, lanes where each cell is still
+    // blank in the input, and lanes where each cell has a single candidate
+    private final long[] cands;
+    private final long[] blank;
+    private final long[] single;
+    private final short[] grid;
+    // Rep invariant:
+    //      cands.length == numCells*size, and the cells of each unit are
+    //      distinct
+
+    /**
+     * Requires 1 < dim <= 8.
+     */
+    BatchSolver(int dim) {
+        Geometry geometry = Geometry.of(dim);
+        this.dim = dim;
+        size = geometry.size;
+        numCells = geometry.numCells;
+        numUnits = geometry.numUnits;
+        units = geometry.units;
+        cands = new long[numCells * size];
+        blank = new long[numCells];
+        single = new long[numCells];
+        grid = new short[numCells];
+    }
+
+    /**
+     * Solve the puzzles first .. first+count-1 of grids, each made of
+     * numCells bytes row by row, holding digits 1..size or 0 for blanks.
+     * Each puzzle that has a solution is completed in place, and the others
+     * are left as they were.
+     * Requires 0 < count <= 64.
+     *
+     * @return the puzzles solved, as bit l for puzzle first+l
+     */
+    long solve(byte[] grids, int first, int count) {
+        long active = count == LANES ? -1L : (1L << count) - 1;
+        load(grids, first, count);
+        long dead = propagate(active);
+        long solved = active & ~dead;
+        for (int c = 0; c < numCells; c++) {
+            solved &= single[c];
+        }
+        store(grids, first, solved);
+
+        // the rest needs branching
+        long open = active & ~dead & ~solved;
+        while (open != 0) {
+            int l = Long.numberOfTrailingZeros(open);
+            open &= open - 1;
+            long bit = 1L << l;
+            for (int c = 0; c < numCells; c++) {
+                int digit = -1;
+                if ((single[c] & bit) != 0) {
+                    for (int k = 0; k < size && digit == -1; k++) {
+                        if ((cands[c * size + k] & bit) != 0) {
+                            digit = k;
+                        }
+                    }
+                }
+                grid[c] = (short) digit;
+            }
+            int[] solution = new DirectSolver(dim, grid).solve();
+            if (solution != null) {
+                int base = (first + l) * numCells;
+                for (int c = 0; c < numCells; c++) {
+                    grids[base + c] = (byte) (solution[c] + 1);
+                }
+                solved |= bit;
+            }
+        }
+        return solved;
+    }
+
+    // set cands from the givens of the puzzles, and clear the lanes past count
+    private void load(byte[] grids, int first, int count) {
+        for (int i = 0; i < cands.length; i++) {
+            cands[i] = 0;
+        }
+        for (int c = 0; c < numCells; c++) {
+            blank[c] = 0;
+        }
+        for (int l = 0; l < count; l++) {
+            long bit = 1L << l;
+            int base = (first + l) * numCells;
+            for (int c = 0; c < numCells; c++) {
+                int digit = grids[base + c];
+                if (digit == 0) {
+                    blank[c] |= bit;
+                } else {
+                    cands[c * size + digit - 1] |= bit;
+                }
+            }
+        }
+        for (int c = 0; c < numCells; c++) {
+            for (int k = 0; k < size; k++) {
+                cands[c * size + k] |= blank[c];
+            }
+        }
+    }
+
+    /*
+     * Propagate naked and hidden singles in every active lane until nothing
+     * changes. Returns the lanes found to have no solution: a cell with no
+     * candidate, a digit with no place left in a unit, or two cells of a
+     * unit left with the same single digit. Leaves single up to date.
+     */
+    private long propagate(long active) {
+        long dead = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int c = 0; c < numCells; c++) {
+                long once = 0;
+                long twice = 0;
+                int base = c * size;
+                for (int k = 0; k < size; k++) {
+                    long x = cands[base + k];
+                    twice |= once & x;
+                    once |= x;
+                }
+                dead |= active & ~once;
+                single[c] = once & ~twice;
+            }
+            for (int u = 0; u < numUnits; u++) {
+                int base = u * size;
+                for (int k = 0; k < size; k++) {
+                    // lanes where k is the single digit of one, or two,
+                    // cells of the unit; and where it is a candidate in one,
+                    // or two
+                    long fixedOnce = 0;
+                    long fixedTwice = 0;
+                    long once = 0;
+                    long twice = 0;
+                    for (int p = 0; p < size; p++) {
+                        int c = units[base + p];
+                        long x = cands[c * size + k];
+                        long fixed = x & single[c];
+                        fixedTwice |= fixedOnce & fixed;
+                        fixedOnce |= fixed;
+                        twice |= once & x;
+                        once |= x;
+                    }
+                    dead |= fixedTwice | (active & ~once);
+                    long hidden = once & ~twice;
+                    if (fixedOnce == 0 && hidden == 0) {
+                        continue;
+                    }
+                    for (int p = 0; p < size; p++) {
+                        int c = units[base + p];
+                        int i = c * size + k;
+                        long x = cands[i];
+                        // k leaves the cells whose peer holds it, and the
+                        // only cell where it can go holds nothing else
+                        long removed = x & fixedOnce & ~single[c];
+                        if (removed != 0) {
+                            cands[i] = x & ~removed;
+                            changed = true;
+                        }
+                        long only = hidden & cands[i] & ~single[c];
+                        if (only != 0) {
+                            for (int j = c * size; j < (c + 1) * size; j++) {
+                                if (j != i) {
+                                    cands[j] &= ~only;
+                                }
+                            }
+                            single[c] |= only;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            active &= ~dead;
+        }
+        return dead;
+    }
+
+    // write the single digits of the given lanes back to their puzzles
+    private void store(byte[] grids, int first, long lanes) {
+        if (lanes == 0) {
+            return;
+        }
+        for (int c = 0; c < numCells; c++) {
+            for (int k = 0; k < size; k++) {
+                long x = cands[c * size + k] & lanes & blank[c];
+                while (x != 0) {
+                    int l = Long.numberOfTrailingZeros(x);
+                    x &= x - 1;
+                    grids[(first + l) * numCells + c] = (byte) (k + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package sudoku;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import sat.Solver;
+
+/**
+ * The rules of Sudoku for one dimension, without any givens, compiled once
+ * for all the puzzles of that dimension: a Solver loaded with the clauses of
+ * Sudoku.getConstraints(), which each puzzle copies and solves with its
+ * givens as assumptions, and the int literal of each occupies variable.
+ * Templates are cached with soft references, so that they stay as long as
+ * memory allows and are rebuilt when they were collected. This datatype is
+ * immutable.
+ */
+final class ConstraintTemplate {
+    private static final ConcurrentMap<Integer, SoftReference<ConstraintTemplate>> CACHE =
+            new ConcurrentHashMap<Integer, SoftReference<ConstraintTemplate>>();
+
+    private final int size;
+    // never solved, only copied
+    private final Solver prototype;
+    // literals[c*size + k] is the int literal of occupies for digit k in
+    // cell c
+    private final int[] literals;
+
+    /**
+     * @return the template for dimension dim. Requires dim > 1
+     */
+    static ConstraintTemplate of(int dim) {
+        SoftReference<ConstraintTemplate> ref = CACHE.get(dim);
+        ConstraintTemplate template = ref == null ? null : ref.get();
+        if (template == null) {
+            // racing threads may each build one; any of them will do
+            template = new ConstraintTemplate(dim);
+            CACHE.put(dim, new SoftReference<ConstraintTemplate>(template));
+        }
+        return template;
+    }
+
+    private ConstraintTemplate(int dim) {
+        size = dim * dim;
+        // the problem of a blank grid has the clauses of getConstraints();
+        // streaming them into the solver keeps neither a Formula nor a
+        // ClauseStore of them around
+        short[] blank = new short[size * size];
+        Arrays.fill(blank, (short) -1);
+        ProblemEncoder encoder = new ProblemEncoder(dim, blank, Sudoku.encodingFor(size));
+        prototype = new Solver(encoder.numVariables(), encoder.clauses());
+        literals = new int[size * size * size];
+        for (int c = 0; c < size * size; c++) {
+            for (int k = 0; k < size; k++) {
+                literals[c * size + k] = encoder.literal(c, k);
+            }
+        }
+    }
+
+    /**
+     * @return a new solver for the rules, sharing nothing with the template
+     */
+    Solver newSolver() {
+        return new Solver(prototype);
+    }
+
+    /**
+     * @return the int literal for digit k in cell c = row*size + column
+     */
+    int literal(int c, int k) {
+        return literals[c * size + k];
+    }
+}
@@ -0,0 +1,219 @@
+package sudoku;
+
+import java.util.Arrays;
+
+/**
+ * Knuth's Algorithm X with dancing links, for exact cover problems: given
+ * rows that each cover a set of columns, find sets of rows that cover every
+ * column exactly once.
+ *
+ * The toroidal lists are kept in flat int arrays indexed by node, with no
+ * node objects: node 0 is the root, nodes 1..numColumns are the column
+ * headers, and the nodes of the rows follow. The search always branches on
+ * a column with the fewest rows left, and runs on an explicit stack.
+ *
+ * See Knuth, "Dancing links".
+ */
+class DancingLinks {
+    private static final int ROOT = 0;
+
+    private int[] left;
+    private int[] right;
+    private int[] up;
+    private int[] down;
+    // column header of each node, and row of each row node
+    private int[] column;
+    private int[] row;
+    // number of rows left in each column, indexed by header node
+    private final int[] columnSize;
+    private int numNodes;
+    private int numRows;
+    // rows of the first solution found
+    private int[] solution;
+    // Rep invariant:
+    //      left/right and up/down are inverse permutations on the nodes that
+    //      are linked in, forming one circular list per row and per column
+    //      columnSize[c] is the number of row nodes linked in column c
+
+    /**
+     * Create a problem with the given number of columns, and no rows.
+     */
+    DancingLinks(int numColumns) {
+        int capacity = 1 + numColumns + 4 * numColumns;
+        left = new int[capacity];
+        right = new int[capacity];
+        up = new int[capacity];
+        down = new int[capacity];
+        column = new int[capacity];
+        row = new int[capacity];
+        columnSize = new int[numColumns + 1];
+        for (int c = 0; c <= numColumns; c++) {
+            left[c] = c == 0 ? numColumns : c - 1;
+            right[c] = c == numColumns ? 0 : c + 1;
+            up[c] = c;
+            down[c] = c;
+            column[c] = c;
+        }
+        numNodes = numColumns + 1;
+    }
+
+    /**
+     * Add a row covering the given columns.
+     * Requires 0 <= columns[i] < numColumns, with no duplicates.
+     *
+     * @return the index of the row, counting from 0
+     */
+    int addRow(int... columns) {
+        if (numNodes + columns.length > left.length) {
+            grow(Math.max(2 * left.length, numNodes + columns.length));
+        }
+        int first = numNodes;
+        for (int i = 0; i < columns.length; i++) {
+            int n = numNodes++;
+            int c = columns[i] + 1;
+            column[n] = c;
+            row[n] = numRows;
+            // append to the bottom of the column
+            up[n] = up[c];
+            down[n] = c;
+            down[up[c]] = n;
+            up[c] = n;
+            columnSize[c]++;
+            // and to the end of the row
+            left[n] = i == 0 ? n : n - 1;
+            right[n] = first;
+            right[left[n]] = n;
+            left[first] = n;
+        }
+        return numRows++;
+    }
+
+    /**
+     * Search for exact covers, stopping after limit of them.
+     *
+     * @return the number of exact covers found, at most limit. Requires
+     *         limit > 0
+     */
+    int search(int limit) {
+        solution = null;
+        int count = 0;
+        int[] chosen = new int[numRows + 1];
+        int level = 0;
+        boolean descend = true;
+        while (true) {
+            if (descend) {
+                if (right[ROOT] == ROOT) {
+                    // every column is covered
+                    if (count++ == 0) {
+                        solution = new int[level];
+                        for (int l = 0; l < level; l++) {
+                            solution[l] = row[chosen[l]];
+                        }
+                    }
+                    if (count == limit) {
+                        unwind(chosen, level);
+                        return count;
+                    }
+                    descend = false;
+                    continue;
+                }
+                int c = smallestColumn();
+                cover(c);
+                chosen[level] = down[c];
+            } else {
+                // backtrack: undo the row chosen at this level, and move on
+                // to the next row of its column
+                if (level == 0) {
+                    return count;
+                }
+                level--;
+                int r = chosen[level];
+                for (int j = left[r]; j != r; j = left[j]) {
+                    uncover(column[j]);
+                }
+                chosen[level] = down[r];
+            }
+            int r = chosen[level];
+            int c = column[r];
+            if (r == c) {
+                // no row left in this column
+                uncover(c);
+                descend = false;
+                continue;
+            }
+            for (int j = right[r]; j != r; j = right[j]) {
+                cover(column[j]);
+            }
+            level++;
+            descend = true;
+        }
+    }
+
+    /**
+     * @return the rows of the first exact cover found by the last search,
+     *         or null if it found none
+     */
+    int[] getSolution() {
+        return solution;
+    }
+
+    // restore the links after a search stopped at the given level
+    private void unwind(int[] chosen, int level) {
+        while (level > 0) {
+            level--;
+            int r = chosen[level];
+            for (int j = left[r]; j != r; j = left[j]) {
+                uncover(column[j]);
+            }
+            uncover(column[r]);
+        }
+    }
+
+    private int smallestColumn() {
+        int best = right[ROOT];
+        for (int c = right[best]; c != ROOT; c = right[c]) {
+            if (columnSize[c] < columnSize[best]) {
+                best = c;
+                if (columnSize[c] <= 1) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    // remove column c, and every row that covers it, from the lists
+    private void cover(int c) {
+        right[left[c]] = right[c];
+        left[right[c]] = left[c];
+        for (int i = down[c]; i != c; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                columnSize[column[j]]--;
+            }
+        }
+    }
+
+    // exact inverse of cover(c)
+    private void uncover(int c) {
+        for (int i = up[c]; i != c; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                columnSize[column[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        right[left[c]] = c;
+        left[right[c]] = c;
+    }
+
+    private void grow(int capacity) {
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        up = Arrays.copyOf(up, capacity);
+        down = Arrays.copyOf(down, capacity);
+        column = Arrays.copyOf(column, capacity);
+        row = Arrays.copyOf(row, capacity);
+    }
+}
@@ -0,0 +1,286 @@
+package sudoku;
+
+/**
+ * A Sudoku solver that works on the grid directly, without going through
+ * SAT. The digits still possible in each square are kept as bitmasks: one
+ * long per row, column and block records the digits placed there, so grids
+ * of up to 64x64 (dim 8) are supported.
+ *
+ * After each placement it propagates naked singles (a square with one
+ * candidate left) and hidden singles (a digit with one square left in a
+ * unit) to a fixpoint, then branches on a square with the fewest candidates.
+ * All state lives in flat arrays allocated once, so the search allocates
+ * nothing per branch.
+ *
+ * Each propagation round first computes the candidates of every cell, and
+ * then the digits left once and twice in every unit, as bulk operations of
+ * a MaskKernel. On boards of 25x25 and up these run on the Vector API when
+ * VectorMaskKernel is available.
+ */
+class DirectSolver {
+    // smallest size for which the vector kernel is used by default: below
+    // it, the gathers cost more than the loops they replace
+    private static final int VECTOR_SIZE = 25;
+    private static final MaskKernel VECTOR_KERNEL = loadVectorKernel();
+
+    private final int size;
+    private final int numCells;
+    private final int numUnits;
+    private final long full;
+    private final MaskKernel kernel;
+    // grid[c] is the digit in cell c = row*size + column, or -1
+    private final int[] grid;
+    // blank[c] is full if cell c is blank, else 0
+    private final long[] blank;
+    // used[u] has the digits placed in unit u: rows, then columns, then
+    // blocks
+    private final long[] used;
+    // the units of each cell, and the cells of each unit, from Geometry
+    private final int[] rowOf;
+    private final int[] columnOf;
+    private final int[] blockOf;
+    private final int[] units;
+    private final int[] byPosition;
+    // scratch for propagate: candidates of each cell, and digits that are
+    // candidates in at least one, and in at least two, cells of each unit
+    private final long[] cands;
+    private final long[] once;
+    private final long[] twice;
+    // cells in the order they were filled
+    private final int[] trail;
+    private int trailSize;
+    // per decision: its cell, the digits not tried yet, and the trail size
+    // before it
+    private final int[] decisionCell;
+    private final long[] untried;
+    private final int[] trailMark;
+    private long decisions;
+    // Rep invariant:
+    //      used[u] has bit k set iff some cell of unit u holds k
+    //      blank[c] == (grid[c] == -1 ? full : 0)
+    //      trail[0..trailSize) are exactly the non-blank cells filled by
+    //      the search, each once
+
+    /**
+     * Requires 1 < dim <= 8 and grid to hold dim^4 digits from 0 to dim^2-1,
+     * or -1 for blanks, row by row.
+     */
+    DirectSolver(int dim, short[] grid) {
+        this(dim, grid, dim * dim >= VECTOR_SIZE && VECTOR_KERNEL != null
+                ? VECTOR_KERNEL : new ScalarMaskKernel());
+    }
+
+    /**
+     * Same as DirectSolver(dim, grid), propagating with the given kernel.
+     */
+    DirectSolver(int dim, short[] grid, MaskKernel kernel) {
+        Geometry geometry = Geometry.of(dim);
+        this.kernel = kernel;
+        size = geometry.size;
+        numCells = geometry.numCells;
+        numUnits = geometry.numUnits;
+        rowOf = geometry.rowOf;
+        columnOf = geometry.columnOf;
+        blockOf = geometry.blockOf;
+        units = geometry.units;
+        byPosition = geometry.byPosition;
+        full = size == 64 ? -1L : (1L << size) - 1;
+        this.grid = new int[numCells];
+        blank = new long[numCells];
+        used = new long[numUnits];
+        for (int c = 0; c < numCells; c++) {
+            this.grid[c] = grid[c];
+            blank[c] = grid[c] == -1 ? full : 0;
+        }
+        cands = new long[numCells];
+        once = new long[numUnits];
+        twice = new long[numUnits];
+        trail = new int[numCells];
+        decisionCell = new int[numCells];
+        untried = new long[numCells];
+        trailMark = new int[numCells];
+    }
+
+    /**
+     * @return the kernel on the Vector API, or null if VectorMaskKernel was
+     *         not compiled or the jdk.incubator.vector module is missing
+     */
+    static MaskKernel vectorKernel() {
+        return VECTOR_KERNEL;
+    }
+
+    private static MaskKernel loadVectorKernel() {
+        try {
+            return Class.forName("sudoku.VectorMaskKernel").asSubclass(MaskKernel.class)
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (LinkageError e) {
+            // compiled, but run without --add-modules jdk.incubator.vector
+            return null;
+        }
+    }
+
+    /**
+     * @return the completed grid, as digits from 0 to size-1 indexed by
+     *         row*size + column, or null if there is no solution
+     */
+    int[] solve() {
+        for (int c = 0; c < numCells; c++) {
+            int k = grid[c];
+            if (k != -1) {
+                long bit = 1L << k;
+                if (((used[rowOf[c]] | used[columnOf[c]] | used[blockOf[c]]) & bit) != 0) {
+                    return null;
+                }
+                used[rowOf[c]] |= bit;
+                used[columnOf[c]] |= bit;
+                used[blockOf[c]] |= bit;
+            }
+        }
+        if (!propagate()) {
+            return null;
+        }
+        int level = 0;
+        while (true) {
+            int cell = pickCell();
+            if (cell < 0) {
+                return grid.clone();
+            }
+            decisionCell[level] = cell;
+            untried[level] = candidates(cell);
+            trailMark[level] = trailSize;
+            level++;
+            // try the next digit of the innermost decision, backtracking
+            // when it has none left
+            while (true) {
+                if (level == 0) {
+                    return null;
+                }
+                int d = level - 1;
+                undo(trailMark[d]);
+                if (untried[d] == 0) {
+                    level--;
+                    continue;
+                }
+                long bit = Long.lowestOneBit(untried[d]);
+                untried[d] &= ~bit;
+                decisions++;
+                place(decisionCell[d], Long.numberOfTrailingZeros(bit));
+                if (propagate()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of branching decisions made so far
+     */
+    long getDecisions() {
+        return decisions;
+    }
+
+    private long candidates(int c) {
+        return blank[c] & ~(used[rowOf[c]] | used[columnOf[c]] | used[blockOf[c]]);
+    }
+
+    private void place(int c, int k) {
+        long bit = 1L << k;
+        grid[c] = k;
+        blank[c] = 0;
+        used[rowOf[c]] |= bit;
+        used[columnOf[c]] |= bit;
+        used[blockOf[c]] |= bit;
+        trail[trailSize++] = c;
+    }
+
+    // clear the cells filled since the trail had the given size
+    private void undo(int mark) {
+        while (trailSize > mark) {
+            int c = trail[--trailSize];
+            long bit = ~(1L << grid[c]);
+            used[rowOf[c]] &= bit;
+            used[columnOf[c]] &= bit;
+            used[blockOf[c]] &= bit;
+            grid[c] = -1;
+            blank[c] = full;
+        }
+    }
+
+    /*
+     * Fill naked and hidden singles until none is left. The masks of a
+     * round are computed before any of its placements, and candidates only
+     * shrink as cells are filled, so a single whose digit is gone by the
+     * time it is placed has no candidate left.
+     * Returns false if some square or some digit of a unit has no place left.
+     */
+    private boolean propagate() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            kernel.candidates(used, rowOf, columnOf, blockOf, blank, cands, numCells);
+            for (int c = 0; c < numCells; c++) {
+                long m = cands[c];
+                if (grid[c] != -1 || (m & (m - 1)) != 0) {
+                    continue;
+                }
+                if (m == 0 || candidates(c) == 0) {
+                    return false;
+                }
+                place(c, Long.numberOfTrailingZeros(m));
+                changed = true;
+            }
+            if (changed) {
+                continue;
+            }
+            kernel.summarize(cands, byPosition, numUnits, size, once, twice);
+            for (int u = 0; u < numUnits; u++) {
+                if ((once[u] | used[u]) != full) {
+                    return false;
+                }
+                long hidden = once[u] & ~twice[u];
+                while (hidden != 0) {
+                    long bit = Long.lowestOneBit(hidden);
+                    hidden &= ~bit;
+                    int base = u * size;
+                    int p = 0;
+                    while ((cands[units[base + p]] & bit) == 0) {
+                        p++;
+                    }
+                    int c = units[base + p];
+                    int k = Long.numberOfTrailingZeros(bit);
+                    if (grid[c] == k) {
+                        // placed already, as a hidden single of another unit
+                        continue;
+                    }
+                    if ((candidates(c) & bit) == 0) {
+                        return false;
+                    }
+                    place(c, k);
+                    changed = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    // a blank cell with the fewest candidates, or -1 if the grid is full
+    private int pickCell() {
+        int best = -1;
+        int bestCount = Integer.MAX_VALUE;
+        for (int c = 0; c < numCells; c++) {
+            if (grid[c] == -1) {
+                int count = Long.bitCount(candidates(c));
+                if (count < bestCount) {
+                    best = c;
+                    bestCount = count;
+                    if (count <= 2) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,118 @@
+package sudoku;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import sat.env.Variable;
+import sat.env.VariableRegistry;
+
+/**
+ * The index tables of Sudoku grids of one dimension, built once and shared
+ * by all puzzles and engines of that dimension. Cells are numbered row by
+ * row, c = i*size + j, and units as rows, then columns, then blocks: unit u
+ * is row u, column u - size or block u - 2*size, blocks being numbered row
+ * by row. The tables are small, and kept for good once built; the variables
+ * of the SAT encoding are not (see occupies()). This datatype is immutable.
+ */
+final class Geometry {
+    private static final ConcurrentMap<Integer, Geometry> CACHE = new ConcurrentHashMap<Integer, Geometry>();
+
+    final int dim;
+    final int size;
+    final int numCells;
+    final int numUnits;
+    // the cells of unit u are units[u*size .. (u+1)*size), in row-major
+    // order, and byPosition[p*numUnits + u] == units[u*size + p]
+    final int[] units;
+    final int[] byPosition;
+    // the row, column and block of each cell, as unit indices
+    final int[] rowOf;
+    final int[] columnOf;
+    final int[] blockOf;
+    // occupies[c*size + k] is the variable for digit k in cell c, with id
+    // c*size + k; built on first use, as the engines that work on the grid
+    // directly never need it, and only softly held, as the tables are never
+    // evicted and the variables are size^3 objects
+    private volatile SoftReference<Variable[]> occupies;
+    // Rep invariant:
+    //      size == dim*dim, numCells == size*size, numUnits == 3*size
+    //      each cell is in exactly the three units rowOf[c], columnOf[c]
+    //      and blockOf[c]
+    // The arrays are never modified once built.
+
+    /**
+     * @return the tables for dimension dim. Requires dim > 0
+     */
+    static Geometry of(int dim) {
+        Geometry geometry = CACHE.get(dim);
+        if (geometry == null) {
+            // racing threads may each build one, but all get the same
+            CACHE.putIfAbsent(dim, new Geometry(dim));
+            geometry = CACHE.get(dim);
+        }
+        return geometry;
+    }
+
+    private Geometry(int dim) {
+        this.dim = dim;
+        size = dim * dim;
+        numCells = size * size;
+        numUnits = 3 * size;
+        units = new int[3 * numCells];
+        byPosition = new int[3 * numCells];
+        rowOf = new int[numCells];
+        columnOf = new int[numCells];
+        blockOf = new int[numCells];
+        int[] filled = new int[numUnits];
+        for (int c = 0; c < numCells; c++) {
+            int i = c / size;
+            int j = c % size;
+            rowOf[c] = i;
+            columnOf[c] = size + j;
+            blockOf[c] = 2 * size + dim * (i / dim) + j / dim;
+            addToUnit(rowOf[c], c, filled);
+            addToUnit(columnOf[c], c, filled);
+            addToUnit(blockOf[c], c, filled);
+        }
+    }
+
+    private void addToUnit(int u, int c, int[] filled) {
+        units[u * size + filled[u]] = c;
+        byPosition[filled[u] * numUnits + u] = c;
+        filled[u]++;
+    }
+
+    /**
+     * @return the variables of the SAT encoding: element c*size + k, named
+     *         vi_j_k, stands for digit k in cell c = i*size + j. The same
+     *         array is returned as long as some caller keeps it; once none
+     *         does, it may be collected, and a new array of new variables is
+     *         built on the next call. Callers that must see the same
+     *         variables again should therefore keep the array.
+     */
+    Variable[] occupies() {
+        SoftReference<Variable[]> ref = occupies;
+        Variable[] variables = ref == null ? null : ref.get();
+        if (variables == null) {
+            synchronized (this) {
+                ref = occupies;
+                variables = ref == null ? null : ref.get();
+                if (variables == null) {
+                    final int n = size;
+                    VariableRegistry registry = new VariableRegistry(new VariableRegistry.Namer() {
+                        public String name(int id) {
+                            return String.format("v%d_%d_%d", id / (n * n), id / n % n, id % n);
+                        }
+                    });
+                    variables = new Variable[numCells * size];
+                    for (int v = 0; v < variables.length; v++) {
+                        variables[v] = registry.fresh();
+                    }
+                    occupies = new SoftReference<Variable[]>(variables);
+                }
+            }
+        }
+        return variables;
+    }
+}
@@ -0,0 +1,262 @@
+package sudoku;
+
+import java.nio.ByteBuffer;
+
+import sudoku.Sudoku.ParseException;
+
+/**
+ * The text formats of a Sudoku grid, read and written straight from and to
+ * byte buffers in ASCII, without making a String or any other object per
+ * square or per line, so that parsing and formatting cost about as much as
+ * copying the bytes. Lines end with "\n" or "\r\n"; the last line of a
+ * buffer may also end with a lone "\r", or at its limit.
+ *
+ * Grids are held as in Sudoku: square i*size + j, for row i and column j,
+ * holds a digit from 0 to size-1, standing for 1 to size, or -1 for a blank.
+ */
+public enum GridFormat {
+    /**
+     * The format of Sudoku.fromFile and toString: size lines of size squares
+     * separated by '|', each as wide as the number size, holding a number
+     * right-aligned with spaces, or spaces only for a blank.
+     */
+    PIPE,
+    /**
+     * One line of size*size characters, row after row, with '.' or '0' for
+     * blanks, as in the usual puzzle corpus files. Only for dim 2 and 3.
+     */
+    LINE,
+    /**
+     * SadMan Software's .sdk files: any number of comment lines starting
+     * with '#', then size lines of size characters, with '.' or '0' for
+     * blanks. Only for dim 2 and 3.
+     */
+    SDK;
+
+    /**
+     * Read one grid of dimension dim, starting at the position of in, into
+     * grid[offset .. offset + size*size), and move the position of in past
+     * its last line. Requires the lines of the grid to be entirely in in.
+     *
+     * @throws ParseException
+     *             if the text at the position of in is not a grid of this
+     *             format; the position of in is then unspecified
+     */
+    void parse(ByteBuffer in, int dim, short[] grid, int offset) throws ParseException {
+        int size = dim * dim;
+        switch (this) {
+        case PIPE:
+            for (int i = 0; i < size; i++) {
+                if (!in.hasRemaining()) {
+                    throw new ParseException("File is not formatted correctly! Not enough lines!");
+                }
+                parsePipeRow(in, size, grid, offset + i * size);
+            }
+            break;
+        case LINE:
+            checkDigits(size);
+            parseRow(in, size * size, size, grid, offset);
+            break;
+        case SDK:
+            checkDigits(size);
+            while (in.hasRemaining() && in.get(in.position()) == '#') {
+                in.position(nextLine(in, lineEnd(in, in.position())));
+            }
+            for (int i = 0; i < size; i++) {
+                if (!in.hasRemaining()) {
+                    throw new ParseException("Not enough lines: expected " + size + " rows");
+                }
+                parseRow(in, size, size, grid, offset + i * size);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Write grid[offset .. offset + size*size), a grid of dimension dim, to
+     * out at its position, line terminators included, and move the position
+     * past it. Blanks are written as spaces in PIPE and as '.' otherwise.
+     *
+     * @throws java.nio.BufferOverflowException
+     *             if out has fewer than maxLength(dim) bytes remaining
+     */
+    void format(short[] grid, int offset, int dim, ByteBuffer out) {
+        int size = dim * dim;
+        if (this == PIPE) {
+            int width = width(size);
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    int k = grid[offset + i * size + j];
+                    int digits = k == -1 ? 0 : width(k + 1);
+                    for (int p = digits; p < width; p++) {
+                        out.put((byte) ' ');
+                    }
+                    // the digits of k + 1, most significant first
+                    for (int power = pow10(digits - 1); power > 0; power /= 10) {
+                        out.put((byte) ('0' + (k + 1) / power % 10));
+                    }
+                    out.put((byte) (j < size - 1 ? '|' : '\n'));
+                }
+            }
+            return;
+        }
+        checkDigits(size);
+        for (int c = 0; c < size * size; c++) {
+            int k = grid[offset + c];
+            out.put((byte) (k == -1 ? '.' : '1' + k));
+            if (this == SDK && c % size == size - 1) {
+                out.put((byte) '\n');
+            }
+        }
+        if (this == LINE) {
+            out.put((byte) '\n');
+        }
+    }
+
+    /**
+     * @return the number of bytes format writes for a grid of dimension dim
+     */
+    int maxLength(int dim) {
+        int size = dim * dim;
+        switch (this) {
+        case PIPE:
+            return size * size * (width(size) + 1);
+        case LINE:
+            return size * size + 1;
+        default:
+            return size * (size + 1);
+        }
+    }
+
+    /*
+     * A row of the PIPE format, into grid[offset .. offset + size), checked
+     * as fromFile always has: the number of squares first, then the width
+     * of each.
+     */
+    private static void parsePipeRow(ByteBuffer in, int size, short[] grid, int offset)
+            throws ParseException {
+        int start = in.position();
+        int end = lineEnd(in, start);
+        int squares = 1;
+        for (int p = start; p < end; p++) {
+            if (in.get(p) == '|') {
+                squares++;
+            }
+        }
+        if (squares != size) {
+            throw new ParseException("File is not formatted correctly! Not right number of digits in a line!");
+        }
+        int width = width(size);
+        int p = start;
+        for (int j = 0; j < size; j++) {
+            int from = p;
+            while (p < end && in.get(p) != '|') {
+                p++;
+            }
+            if (p - from != width) {
+                throw new ParseException("File is not formatted correctly! Digits in file not properly padded width whitespace!");
+            }
+            // a number with spaces around it, or spaces only; 0 is a blank
+            int value = 0;
+            int digits = 0;
+            boolean after = false;
+            for (int q = from; q < p; q++) {
+                byte b = in.get(q);
+                if (b == ' ') {
+                    after = digits > 0;
+                } else if (b >= '0' && b <= '9' && !after) {
+                    value = 10 * value + b - '0';
+                    digits++;
+                } else {
+                    throw new ParseException("File is not formatted correctly! '" + (char) b
+                            + "' in a square is not a digit or a space!");
+                }
+            }
+            if (value > size) {
+                throw new ParseException("File is not formatted correctly! " + value
+                        + " is not a digit from 1 to " + size + "!");
+            }
+            grid[offset + j] = (short) (value - 1);
+            p++;
+        }
+        in.position(nextLine(in, end));
+    }
+
+    /*
+     * A line of length characters, one per square, into grid[offset ..
+     * offset + length).
+     */
+    private static void parseRow(ByteBuffer in, int length, int size, short[] grid, int offset)
+            throws ParseException {
+        int start = in.position();
+        int end = lineEnd(in, start);
+        if (end - start != length) {
+            throw new ParseException("expected " + length + " squares, not " + (end - start));
+        }
+        for (int c = 0; c < length; c++) {
+            byte b = in.get(start + c);
+            if (b == '.' || b == '0') {
+                grid[offset + c] = -1;
+            } else if (b >= '1' && b < '1' + size) {
+                grid[offset + c] = (short) (b - '1');
+            } else {
+                throw new ParseException("'" + (char) b + "' is not a digit from 1 to " + size
+                        + " or a blank");
+            }
+        }
+        in.position(nextLine(in, end));
+    }
+
+    /**
+     * @return the end of the line starting at start in in: the index of its
+     *         "\n" or "\r\n", of a "\r" that is the last byte of in, or the
+     *         limit of in
+     */
+    static int lineEnd(ByteBuffer in, int start) {
+        int limit = in.limit();
+        for (int p = start; p < limit; p++) {
+            byte b = in.get(p);
+            if (b == '\n' || (b == '\r' && (p + 1 == limit || in.get(p + 1) == '\n'))) {
+                return p;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * @return the start of the line after the one ending at end in in, as
+     *         found by lineEnd
+     */
+    static int nextLine(ByteBuffer in, int end) {
+        if (end == in.limit()) {
+            return end;
+        }
+        // a "\r" at the limit is a line end of its own
+        return in.get(end) == '\r' && end + 1 < in.limit() ? end + 2 : end + 1;
+    }
+
+    private void checkDigits(int size) {
+        if (size > 9) {
+            throw new IllegalArgumentException(this + " only holds grids of up to 9 digits, not "
+                    + size);
+        }
+    }
+
+    // number of decimal digits of n > 0
+    private static int width(int n) {
+        int digits = 1;
+        for (; n >= 10; n /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    // 10^n, or 0 if n < 0
+    private static int pow10(int n) {
+        int power = n < 0 ? 0 : 1;
+        for (int i = 0; i < n; i++) {
+            power *= 10;
+        }
+        return power;
+    }
+}
@@ -1,10 +1,12 @@
 package sudoku;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
+import sat.ClauseStore;
 import sat.SATSolver;
-import sat.env.Environment;
-import sat.formula.Formula;
 import sudoku.Sudoku.ParseException;
 
 public class Main {
@@ -12,8 +14,17 @@ public class Main {
 
     /*
      * Uncomment line(s) below to test your implementation! 
+     *
+     * With arguments "batch <input> <output> [threads]", solves instead a
+     * file of puzzles written one per line, as described in BatchPipeline.
      */
     public static void main (String[] args) {
+        if (args.length >= 3 && args[0].equals("batch")) {
+            int threads = args.length > 3 ? Integer.parseInt(args[3])
+                    : Runtime.getRuntime().availableProcessors();
+            batchSolve(args[1], args[2], threads);
+            return;
+        }
         timedSolve (new Sudoku(2));
         timedSolve (new Sudoku(2, new int[][] { 
                     new int[] { 0, 1, 0, 4 }, 
@@ -38,15 +49,19 @@ public class Main {
         long started = System.nanoTime();
 
         System.out.println ("Creating SAT formula...");
-        Formula f = sudoku.getProblem();
+        ClauseStore store = sudoku.encodeProblem();
         
         System.out.println ("Solving...");
-        Environment e = SATSolver.solve(f);
+        boolean[] model = SATSolver.solveModel(store);
         
-        System.out.println ("Interpreting solution...");
-        Sudoku solution = sudoku.interpretSolution(e);
-        
-        System.out.println ("Solution is: \n" + solution);    
+        if (model == null) {
+            System.out.println ("No solution. Conflicting givens: \n" + sudoku.conflictingGivens());
+        } else {
+            System.out.println ("Interpreting solution...");
+            Sudoku solution = sudoku.interpretSolution(model);
+            
+            System.out.println ("Solution is: \n" + solution);    
+        }
 
         long time = System.nanoTime();
         long timeTaken = (time - started);
@@ -67,4 +82,36 @@ public class Main {
             e.printStackTrace();
         }        
     }
+
+    /**
+     * Solve a file of one-line puzzles into another, and display the
+     * throughput and latencies.
+     * @param input  name of the file of puzzles
+     * @param output  name of the file to write the solutions to
+     * @param threads  number of worker threads
+     */
+    private static void batchSolve(String input, String output, int threads) {
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            in = new FileInputStream(input).getChannel();
+            out = new FileOutputStream(output).getChannel();
+            // four chunks per worker keep them busy while the writer waits
+            // for a slow chunk
+            System.out.println (BatchPipeline.run(in, out, threads, 4*threads));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (out != null)
+                    out.close();
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
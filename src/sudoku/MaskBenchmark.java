@@ -0,0 +1,106 @@
+package sudoku;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the scalar and vector MaskKernels, on their own and inside
+ * DirectSolver, for boards from 25x25 to 64x64. The vector kernel is only
+ * there when src-vector has been compiled, and the benchmark is run with
+ * --add-modules jdk.incubator.vector; otherwise only the scalar times are
+ * printed.
+ */
+public class MaskBenchmark {
+    private static final int ROUNDS = 2000;
+    private static final int SOLVES = 7;
+
+    public static void main(String[] args) {
+        MaskKernel scalar = new ScalarMaskKernel();
+        MaskKernel vector = DirectSolver.vectorKernel();
+        if (vector == null) {
+            System.out.println("Vector kernel not available: run with "
+                    + "--add-modules jdk.incubator.vector and src-vector compiled");
+        }
+        for (int dim = 5; dim <= 8; dim++) {
+            long scalarTime = timeKernel(scalar, dim);
+            String line = (dim*dim) + "x" + (dim*dim) + " kernels: scalar " + scalarTime / ROUNDS + "ns";
+            if (vector != null) {
+                long vectorTime = timeKernel(vector, dim);
+                line += ", vector " + vectorTime / ROUNDS + "ns, speedup "
+                        + String.format("%.2f", (double) scalarTime / vectorTime);
+            }
+            System.out.println(line);
+
+            line = (dim*dim) + "x" + (dim*dim) + " empty grid: scalar " + timeSolve(scalar, dim) / 1000 + "us";
+            if (vector != null) {
+                line += ", vector " + timeSolve(vector, dim) / 1000 + "us";
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * @return the time taken by ROUNDS rounds of candidates and summarize
+     *         on a board of dimension dim, about half filled at random, in
+     *         nanoseconds, after as many rounds of warm-up
+     */
+    private static long timeKernel(MaskKernel kernel, int dim) {
+        Geometry geometry = Geometry.of(dim);
+        int size = geometry.size;
+        int numCells = geometry.numCells;
+        int numUnits = geometry.numUnits;
+        int[] rowOf = geometry.rowOf;
+        int[] columnOf = geometry.columnOf;
+        int[] blockOf = geometry.blockOf;
+        int[] byPosition = geometry.byPosition;
+        long full = size == 64 ? -1L : (1L << size) - 1;
+        Random random = new Random(dim);
+        long[] used = new long[numUnits];
+        long[] blank = new long[numCells];
+        for (int u = 0; u < numUnits; u++) {
+            used[u] = random.nextLong() & full;
+        }
+        for (int c = 0; c < numCells; c++) {
+            blank[c] = random.nextBoolean() ? full : 0;
+        }
+        long[] cands = new long[numCells];
+        long[] once = new long[numUnits];
+        long[] twice = new long[numUnits];
+        long started = 0;
+        long check = 0;
+        for (int r = 0; r < 2*ROUNDS; r++) {
+            if (r == ROUNDS) {
+                started = System.nanoTime();
+            }
+            used[r % numUnits] ^= 1L << (r % size);
+            kernel.candidates(used, rowOf, columnOf, blockOf, blank, cands, numCells);
+            kernel.summarize(cands, byPosition, numUnits, size, once, twice);
+            check += once[r % numUnits] ^ twice[r % numUnits];
+        }
+        long time = System.nanoTime() - started;
+        if (check == 42) {
+            // keep the results alive
+            System.out.println();
+        }
+        return time;
+    }
+
+    /**
+     * @return the median time taken to fill an empty grid of dimension dim
+     *         with DirectSolver over SOLVES runs, in nanoseconds, after one
+     *         warm-up run; a single run is too noisy to compare the kernels
+     */
+    private static long timeSolve(MaskKernel kernel, int dim) {
+        short[] grid = new short[dim*dim*dim*dim];
+        Arrays.fill(grid, (short) -1);
+        new DirectSolver(dim, grid, kernel).solve();
+        long[] times = new long[SOLVES];
+        for (int r = 0; r < SOLVES; r++) {
+            long started = System.nanoTime();
+            new DirectSolver(dim, grid, kernel).solve();
+            times[r] = System.nanoTime() - started;
+        }
+        Arrays.sort(times);
+        return times[SOLVES / 2];
+    }
+}
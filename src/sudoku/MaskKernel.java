@@ -0,0 +1,27 @@
+package sudoku;
+
+/**
+ * The bulk bitmask operations of DirectSolver's propagation, over all cells
+ * or all units of a grid at once. Masks are longs with bit k set for digit
+ * k. ScalarMaskKernel runs them as plain loops; VectorMaskKernel, when it
+ * has been compiled and the jdk.incubator.vector module is present, runs
+ * them on SIMD registers (see DirectSolver.vectorKernel()).
+ */
+interface MaskKernel {
+    /**
+     * Compute the candidates of every cell: for 0 <= c < numCells, set
+     * cands[c] to blank[c] & ~(used[rowOf[c]] | used[columnOf[c]] |
+     * used[blockOf[c]]).
+     */
+    void candidates(long[] used, int[] rowOf, int[] columnOf, int[] blockOf,
+            long[] blank, long[] cands, int numCells);
+
+    /**
+     * Summarize the candidates of every unit: for 0 <= u < numUnits, set
+     * once[u] to the digits that are candidates in at least one cell of u,
+     * and twice[u] to those that are candidates in at least two, where the
+     * cells of unit u are byPosition[p*numUnits + u] for 0 <= p < size.
+     */
+    void summarize(long[] cands, int[] byPosition, int numUnits, int size,
+            long[] once, long[] twice);
+}
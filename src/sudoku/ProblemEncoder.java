@@ -0,0 +1,312 @@
+package sudoku;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import sat.ClauseBuffer;
+import sat.ClauseStore;
+import sat.env.Variable;
+import sat.formula.Formula;
+
+/**
+ * Encodes a puzzle as Sudoku.getProblem() does, with the givens applied
+ * first, but straight into int clauses and in parallel. The work is split
+ * by constraint family and unit: the cells of each row, then each row,
+ * column and block. Each part is a fork/join task, run in the caller's
+ * pool or the common pool, which writes its clauses and makes its
+ * auxiliary variables in a ClauseBuffer of its own. The buffers are then
+ * merged in that order into one ClauseStore, so the result does not depend
+ * on how the tasks were scheduled.
+ *
+ * The variables of the store are the candidates first, in order of cell
+ * and digit, then the auxiliary variables of each part in turn.
+ */
+class ProblemEncoder {
+    // below this size, the parts are encoded on the calling thread: there
+    // is too little work to share out
+    private static final int PARALLEL_SIZE = 16;
+
+    private final Geometry geometry;
+    private final int size;
+    private final short[] grid;
+    private final Formula.Encoding encoding;
+    // given[u*size + k] is true iff digit k is given in unit u
+    private final boolean[] given;
+    // true iff two givens clash, and the problem has no solution
+    private final boolean clash;
+    // var[c*size + k] is the id of the candidate digit k in cell c, or -1
+    // if k is not a candidate there
+    private final int[] var;
+    private final int numCandidates;
+    private final ClauseBuffer[] parts;
+    // computed on demand by firstAux()
+    private int[] firstAux;
+    // Rep invariant:
+    //      the ids in var are 0..numCandidates-1, each once
+
+    /**
+     * Prepare the encoding of grid, which holds digits from 0 to size-1 or
+     * -1 for blanks, row by row, under the given encoding.
+     */
+    ProblemEncoder(int dim, short[] grid, Formula.Encoding encoding) {
+        geometry = Geometry.of(dim);
+        size = geometry.size;
+        this.grid = grid;
+        this.encoding = encoding;
+        given = new boolean[geometry.numUnits * size];
+        boolean clashing = false;
+        for (int c = 0; c < geometry.numCells; c++) {
+            int k = grid[c];
+            if (k == -1) {
+                continue;
+            }
+            int row = geometry.rowOf[c] * size + k;
+            int column = geometry.columnOf[c] * size + k;
+            int block = geometry.blockOf[c] * size + k;
+            clashing |= given[row] || given[column] || given[block];
+            given[row] = given[column] = given[block] = true;
+        }
+        clash = clashing;
+
+        var = new int[geometry.numCells * size];
+        int numVariables = 0;
+        for (int c = 0; c < geometry.numCells; c++) {
+            for (int k = 0; k < size; k++) {
+                var[c * size + k] = isCandidate(c, k) ? numVariables++ : -1;
+            }
+        }
+        numCandidates = numVariables;
+        parts = new ClauseBuffer[4 * size];
+    }
+
+    private boolean isCandidate(int c, int k) {
+        return grid[c] == -1 && !given[geometry.rowOf[c] * size + k]
+                && !given[geometry.columnOf[c] * size + k] && !given[geometry.blockOf[c] * size + k];
+    }
+
+    /**
+     * @return the problem, as a new store, in which the variable of the
+     *         candidate digit k in cell c is occupies[c*size + k]. Requires
+     *         occupies to hold distinct variables.
+     */
+    ClauseStore encode(Variable[] occupies) {
+        if (clash) {
+            ClauseStore store = new ClauseStore();
+            store.addClause();
+            return store;
+        }
+        if (size < PARALLEL_SIZE) {
+            for (int part = 0; part < parts.length; part++) {
+                encodePart(part);
+            }
+        } else {
+            // in the pool of the calling task, if any, else the common pool
+            new Parts(0, parts.length).invoke();
+        }
+        Variable[] variables = new Variable[numCandidates];
+        for (int v = 0; v < var.length; v++) {
+            if (var[v] != -1) {
+                variables[var[v]] = occupies[v];
+            }
+        }
+        return ClauseStore.merge(variables, parts);
+    }
+
+    /**
+     * @return the problem as a stream of int clauses over the variables of
+     *         the store made by encode(), in the same order, generated lazily
+     *         one part at a time, so that only the part being read is held
+     *         in memory. Each clause is a new array. The stream is ordered
+     *         and can be split, between parts, for parallel traversal.
+     */
+    Spliterator<int[]> clauses() {
+        if (clash) {
+            return Spliterators.spliterator(new int[][] { new int[0] },
+                    Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+        }
+        return new Clauses(0, parts.length, firstAux());
+    }
+
+    /**
+     * @return the number of variables of the problem, auxiliary ones
+     *         included, as in the store made by encode()
+     */
+    int numVariables() {
+        int[] firstAux = firstAux();
+        return firstAux[firstAux.length - 1];
+    }
+
+    /*
+     * firstAux[part] is the first auxiliary variable of a part in the store
+     * made by encode(): each part numbers its own after those of the parts
+     * before it, as merge does. firstAux[parts.length] is the number of
+     * variables. Only counted, without encoding any clause.
+     */
+    private int[] firstAux() {
+        if (firstAux == null) {
+            firstAux = new int[parts.length + 1];
+            int next = numCandidates;
+            int[] lits = new int[size];
+            for (int part = 0; part < parts.length; part++) {
+                firstAux[part] = next;
+                // blocks only have at-least-one clauses
+                for (int g = 0; g < size && part < 3 * size; g++) {
+                    int n = group(part, g, lits);
+                    if (n != -1) {
+                        next += ClauseBuffer.auxVariables(n, encoding);
+                    }
+                }
+            }
+            firstAux[parts.length] = next;
+        }
+        return firstAux;
+    }
+
+    /**
+     * @return the positive int literal, in the store made by encode(), of
+     *         digit k in cell c, or -1 if k is not a candidate there
+     */
+    int literal(int c, int k) {
+        int v = var[c * size + k];
+        return v == -1 ? -1 : 2 * v;
+    }
+
+    /*
+     * Encode parts from .. to-1, splitting the range in halves until one
+     * part is left.
+     */
+    @SuppressWarnings("serial")
+    private class Parts extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        Parts(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from == 1) {
+                encodePart(from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Parts(from, middle), new Parts(middle, to));
+            }
+        }
+    }
+
+    /*
+     * Part i < size has the cells of row i: exactly one candidate digit in
+     * each blank cell. Part size + u has unit u: each digit not given in it
+     * in exactly one blank cell of a row or column, and at least one of a
+     * block, as in getProblem.
+     */
+    private void encodePart(int part) {
+        ClauseBuffer buffer = new ClauseBuffer(numCandidates);
+        encodePart(part, buffer);
+        parts[part] = buffer;
+    }
+
+    private void encodePart(int part, ClauseBuffer buffer) {
+        int[] lits = new int[size];
+        boolean block = part >= 3 * size;
+        for (int g = 0; g < size; g++) {
+            int n = group(part, g, lits);
+            if (n == -1) {
+                continue;
+            } else if (block) {
+                buffer.addClause(lits, n);
+            } else {
+                buffer.exactlyOne(lits, n, encoding);
+            }
+        }
+    }
+
+    /*
+     * Put in lits the candidate literals of group g of a part, and return
+     * how many there are, or -1 if the part has no such group. The groups
+     * of part i < size are the cells of row i, and those of part size + u
+     * the digits of unit u.
+     */
+    private int group(int part, int g, int[] lits) {
+        int n = 0;
+        if (part < size) {
+            int c = part * size + g;
+            if (grid[c] != -1) {
+                return -1;
+            }
+            for (int k = 0; k < size; k++) {
+                if (var[c * size + k] != -1) {
+                    lits[n++] = 2 * var[c * size + k];
+                }
+            }
+        } else {
+            int u = part - size;
+            if (given[u * size + g]) {
+                return -1;
+            }
+            for (int p = u * size; p < (u + 1) * size; p++) {
+                int v = var[geometry.units[p] * size + g];
+                if (v != -1) {
+                    lits[n++] = 2 * v;
+                }
+            }
+        }
+        return n;
+    }
+
+    /*
+     * The clauses of parts from .. to-1, encoded one part at a time into a
+     * buffer of their own as they are asked for, with the auxiliary
+     * variables each part would have in the store made by encode(). Splits
+     * into ranges of parts not started yet.
+     */
+    private class Clauses implements Spliterator<int[]> {
+        private int from;
+        private final int to;
+        private final int[] firstAux;
+        private final ClauseBuffer buffer = new ClauseBuffer(0);
+
+        Clauses(int from, int to, int[] firstAux) {
+            this.from = from;
+            this.to = to;
+            this.firstAux = firstAux;
+        }
+
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            int[] clause = buffer.poll();
+            while (clause == null && from < to) {
+                buffer.clear(firstAux[from]);
+                encodePart(from++, buffer);
+                clause = buffer.poll();
+            }
+            if (clause == null) {
+                return false;
+            }
+            action.accept(clause);
+            return true;
+        }
+
+        public Spliterator<int[]> trySplit() {
+            // the clauses left in the buffer come before any part, so only a
+            // range starting at a part boundary can be split off
+            if (to - from < 2 || buffer.hasNext()) {
+                return null;
+            }
+            int middle = (from + to) >>> 1;
+            Spliterator<int[]> prefix = new Clauses(from, middle, firstAux);
+            from = middle;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return (long) (to - from) * size + (buffer.hasNext() ? 1 : 0);
+        }
+
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package sudoku;
+
+/**
+ * MaskKernel as plain loops, one cell or unit at a time.
+ */
+class ScalarMaskKernel implements MaskKernel {
+
+    public void candidates(long[] used, int[] rowOf, int[] columnOf, int[] blockOf,
+            long[] blank, long[] cands, int numCells) {
+        for (int c = 0; c < numCells; c++) {
+            cands[c] = blank[c] & ~(used[rowOf[c]] | used[columnOf[c]] | used[blockOf[c]]);
+        }
+    }
+
+    public void summarize(long[] cands, int[] byPosition, int numUnits, int size,
+            long[] once, long[] twice) {
+        for (int u = 0; u < numUnits; u++) {
+            long o = 0;
+            long t = 0;
+            for (int p = 0; p < size; p++) {
+                long m = cands[byPosition[p * numUnits + u]];
+                t |= o & m;
+                o |= m;
+            }
+            once[u] = o;
+            twice[u] = t;
+        }
+    }
+}
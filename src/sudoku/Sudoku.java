@@ -6,20 +6,24 @@
  */
 package sudoku;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import sat.ClauseStore;
+import sat.Solver;
 import sat.env.Bool;
 import sat.env.Environment;
 import sat.env.Variable;
 import sat.formula.Clause;
 import sat.formula.Formula;
 import sat.formula.Literal;
-import sat.formula.NegLiteral;
-import sat.formula.PosLiteral;
+import sat.formula.LiteralFactory;
 
 /**
  * Sudoku is an immutable abstract datatype representing instances of Sudoku.
@@ -30,81 +34,61 @@ public class Sudoku {
     private final int dim;
     // number of rows and columns: standard puzzle has size 9
     private final int size;
-    // known values: square[i][j] represents the square in the ith row and jth
-    // column,
-    // contains -1 if the digit is not present, else i>=0 to represent the digit
-    // i+1
+    // known values: grid[i*size + j] represents the square in the ith row
+    // and jth column, contains -1 if the digit is not present, else i>=0 to
+    // represent the digit i+1
     // (digits are indexed from 0 and not 1 so that we can take the number k
-    // from square[i][j] and
-    // use it to index into occupies[i][j][k])
-    private final int[][] square;
-    // occupies [i,j,k] means that kth symbol occupies entry in row i, column j
-    private final Variable[][][] occupies;
+    // from grid[c] and use it to index into occupies(i,j,k))
+    private final short[] grid;
+    // unit tables shared by all puzzles of this dimension
+    private final Geometry geometry;
+    // variables of the SAT encoding, taken from geometry on first use and
+    // kept so that this puzzle always sees the same ones:
+    // occupies(i,j,k) means that kth symbol occupies entry in row i, column j
+    private volatile Variable [] occupies;
+    // interns the literals of this puzzle's formulas, so that they can be
+    // collected with it and puzzles can be encoded on several threads at once
+    private final LiteralFactory literals;
 
     // Rep invariant:
     //    - dim > 1
     //    - size = dim*dim
-    //    - square[i][j] must be an integer from -1 to size-1.
-    //    - Each column of square must contain at most one instance of an integer from 0 to size-1
-    //    - Each row of square must contain at most one instance of an integer from 0 to size-1
-    //    - Each sub-square of dimension dim x dim defined by the set of values square[i+dim*n,j+dim*m]
-    //          where i = 0,...,dim-1 and n = 0,...,dim-1, each for each k from 0 to size-1, must
-    //          contain at most one instance of an integer from 0 to size-1
+    //    - grid.length = size*size, and geometry = Geometry.of(dim)
+    //    - grid[c] must be an integer from -1 to size-1.
+    //    - Each row, each column and each dim x dim sub-square of the grid
+    //          must contain at most one instance of an integer from 0 to
+    //          size-1
     //          
     private void checkRep() {
-        Set<Integer> set = new HashSet<Integer>();
-       
         // check dim and size
         assert dim > 1;
         assert size == dim*dim;
-       
-        // Assert that each integer only occurs once in each row
-        for(int i = 0; i < size; i++){
-            set.clear();    // clear the set
-            for(int j = 1; j < size; j++){         
-                // assert that the value of square[i][j] hasn't occurred before
-                assert !set.contains(square[i][j]);              
-                // digit must be in the appropriate range
-                assert square[i][j] >= -1 && square[i][j] < size;
-                // add it to the set
-                if(square[i][j] != -1)
-                    set.add(square[i][j]);
-            }            
-        }
+        assert grid.length == size*size;
+        if(grid.length != geometry.numCells)
+            return;     // only reached with assertions disabled
         
-        // Assert that each integer only occurs once in each column
-        for(int j = 0; j < size; j++){
-            set.clear();    // clear the set
-            for(int i = 1; i < size; i++){         
-                // assert that the value of square[i][j] hasn't occurred before
-                assert !set.contains(square[i][j]);              
-                // digit must be in the appropriate range
-                assert square[i][j] >= -1 && square[i][j] < size;
-                // add it to the set
-                if(square[i][j] != -1)
-                    set.add(square[i][j]);
-            }            
+        // digits must be in the appropriate range
+        for(short k : grid){
+            assert k >= -1 && k < size;
         }
         
-        // assert that each subarray at most contains one occurrence of an int from 0 to size-1
-        // iterate over subarrays
-        for(int i = 0; i < dim; i++){
-            for(int j = 0; j < dim; j++){
-                // check the elements of subarray
-                set.clear();    // clear set              
-                for(int k = 0; k < dim; k++){
-                    for(int l = 0; l < dim; l++){   
-                        if(square[k+dim*i][l+dim*j] != -1){
-                            // make sure there's no repeats of a digit in a sub-square
-                            assert !set.contains(square[k + dim*i][l + dim*j]);
-                            set.add(square[k+dim*i][l+dim*j]);                        
-                        }
-                        
-                    }                    
+        // Assert that each integer only occurs once in each row, column and
+        // sub-square. The digits of a unit are checked 64 at a time, as the
+        // bits of seen, which is all of them on grids up to 64x64.
+        int [] units = geometry.units;
+        for(int u = 0; u < geometry.numUnits; u++){
+            for(int low = 0; low < size; low += 64){
+                long seen = 0;
+                for(int p = u*size; p < (u + 1)*size; p++){
+                    int k = grid[units[p]] - low;
+                    if(k < 0 || k >= 64)
+                        continue;
+                    // assert that this digit hasn't occurred before
+                    assert (seen & (1L << k)) == 0;
+                    seen |= 1L << k;
                 }
             }
         }
-
     }
 
     /**
@@ -121,16 +105,11 @@ public class Sudoku {
         this.dim = dim;
         size = dim*dim;
         
-        // allocate space
-        square = new int[size][size];
-        occupies = new Variable[size][size][size];
-        
-        // Fill up square with -1's
-        for(int i = 0; i < size; i++){
-            for(int j = 0; j < size; j++){
-                square[i][j] = -1;
-            }
-        }
+        // allocate space, and fill up the grid with -1's
+        grid = new short[size*size];
+        Arrays.fill(grid, (short) -1);
+        geometry = Geometry.of(dim);
+        literals = new LiteralFactory();
         
         // check rep
         this.checkRep();
@@ -140,7 +119,7 @@ public class Sudoku {
      * create Sudoku puzzle
      * 
      * @param squareWithBlanks
-     *            digits or blanks of the Sudoku grid. square[i][j] represents
+     *            digits or blanks of the Sudoku grid. grid[i*size + j] represents
      *            the square in the ith row and jth column, contains 0 for a
      *            blank, else i to represent the digit i. So 
      *            { { 0, 0, 0, 1 }, 
@@ -171,13 +150,16 @@ public class Sudoku {
         size = squareWithBlanks.length;     // checkRep will check if size == dim*dim
                
         // allocate space
-        square = new int[size][size];
-        occupies = new Variable[size][size][size];                       
+        grid = new short[size*size];
+        geometry = Geometry.of(dim);
+        literals = new LiteralFactory();
         
-        // Copy over int's and subtract by 1.
+        // Copy over int's and subtract by 1. Digits are checked here, before
+        // they are narrowed to shorts, and again by checkRep.
         for(int i = 0; i < size; i++){
             for(int j = 0; j < size; j++){
-                square[i][j] = squareWithBlanks[i][j] -1;              
+                assert squareWithBlanks[i][j] >= 0 && squareWithBlanks[i][j] <= size;
+                grid[i*size + j] = (short) (squareWithBlanks[i][j] - 1);
             }
         }
         
@@ -186,6 +168,45 @@ public class Sudoku {
 
     }
 
+    /**
+     * create Sudoku puzzle from a grid built by this class, which the new
+     * puzzle takes over.
+     * 
+     * @param grid
+     *            digits from 0 to dim^2-1, or -1 for blanks, row by row
+     */
+    private Sudoku(int dim, short[] grid) {
+        this.dim = dim;
+        size = dim*dim;
+        this.grid = grid;
+        geometry = Geometry.of(dim);
+        literals = new LiteralFactory();
+        
+        // check rep
+        this.checkRep();
+    }
+
+    /**
+     * @return the variable for digit k in row i, column j
+     */
+    private Variable occupies(int i, int j, int k) {
+        return occupies()[(i*size + j)*size + k];
+    }
+
+    /**
+     * @return the variables of this puzzle, occupies(i, j, k) being element
+     *         (i*size + j)*size + k
+     */
+    private Variable[] occupies() {
+        Variable [] variables = occupies;
+        if(variables == null){
+            // racing threads get the same array from geometry, which holds
+            // it as long as any of them does
+            variables = occupies = geometry.occupies();
+        }
+        return variables;
+    }
+
     /**
      * Reads in a file containing a Sudoku puzzle.
      * 
@@ -219,58 +240,61 @@ public class Sudoku {
     public static Sudoku fromFile(int dim, String filename) throws IOException,
             ParseException {
         
-        BufferedReader inputStream = null;
+        FileChannel channel = null;
         
-        // try and read file and put the contents into an int[][]
+        // read the whole file into a buffer, and parse the grid from that
         try{
-            inputStream = new BufferedReader(new FileReader(filename));
+            channel = new FileInputStream(filename).getChannel();
+            ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+            while(in.hasRemaining() && channel.read(in) != -1)
+                ;
+            in.flip();
             
-            int [][] inputInts = new int[dim*dim][dim*dim];
-            
-            String line;
-            for(int i = 0; i < dim*dim; i++){
-                // if we run out of lines prematurely, throw exception
-                if((line = inputStream.readLine()) == null)
-                    throw new ParseException("File is not formatted correctly! Not enough lines!");
-                String [] digits = new String[dim*dim];
-                digits = line.split("[|]");
-                
-                // If we didn't read the right number of digits on a line throw an exception
-                if(digits.length != dim*dim)
-                    throw new ParseException("File is not formatted correctly! Not right number of digits in a line!");
-                
-                // Convert the strings to ints and store them in the input
-                for(int j = 0; j < dim*dim; j++){  
-                    try{
-                        // make sure digits[j] is padded correctly as specified.
-                        if(digits[j].length() != String.valueOf(dim*dim).length())
-                            throw new ParseException("File is not formatted correctly! Digits in file not properly padded width whitespace!");
-                        
-                        // Attempt to parse as an int
-                        inputInts[i][j] = (new Integer(digits[j].trim())).intValue();
-                    }catch(NumberFormatException e){
-                        // Else, it throws a NumberFormatException and thus that 
-                        // spot must be blank space
-                        inputInts[i][j] = 0;
-                    }              
-                }
-            }
+            Sudoku sudoku = parse(dim, in, GridFormat.PIPE);
             
-            // Try and read one more line, if it doesn't fail as expected, thorw
-            // a ParseException
-            line = inputStream.readLine();
-            if(line != null)
+            // nothing may follow the last row
+            if(in.hasRemaining())
                 throw new ParseException("File is not formatted correctly! Too many lines!");
-            
-            // Make the Sudoku problem
-            return new Sudoku(dim,inputInts);
+            return sudoku;
         } finally{
-            if(inputStream != null)
-                inputStream.close();
+            if(channel != null)
+                channel.close();
         }       
             
     }
 
+    /**
+     * Read a puzzle written in some format, starting at the position of in,
+     * and move the position of in past the puzzle. No String is made along
+     * the way, so this is cheap enough to read puzzles one after another
+     * from a large buffer.
+     * 
+     * @param dim
+     *            Dimension of puzzle. The LINE and SDK formats require dim
+     *            to be 2 or 3.
+     * @return Sudoku object for the puzzle
+     * @throws ParseException
+     *             if the text at the position of in is not a puzzle of
+     *             dimension dim in that format
+     */
+    public static Sudoku parse(int dim, ByteBuffer in, GridFormat format) throws ParseException {
+        short [] grid = new short[dim*dim*dim*dim];
+        format.parse(in, dim, grid, 0);
+        return new Sudoku(dim, grid);
+    }
+
+    /**
+     * Write this grid in some format to out, at its position, and move the
+     * position past it. toString() is the PIPE format.
+     * 
+     * @throws java.nio.BufferOverflowException
+     *             if out has too little room left; the length of a grid
+     *             only depends on its format and dimension
+     */
+    public void format(ByteBuffer out, GridFormat format) {
+        format.format(grid, 0, dim, out);
+    }
+
     /**
      * Exception used for signaling grammatical errors in Sudoku puzzle files
      */
@@ -292,159 +316,532 @@ public class Sudoku {
      * @return a string corresponding to this grid
      */
     public String toString() {
-    	// calculate length of a square
-    	String sz = String.valueOf(size);
-    	int len = sz.toCharArray().length;
-    	
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                if (square[i][j] < 0) {
-                    result.append(String.format("%"+ len + "s", " "));
-                } else {
-                    result.append(String.format("%"+ len + "d", square[i][j] + 1));
-                }
-                if (j < size - 1) {
-                	result.append("|");
-                }
-            }
-            result.append("\n");
-        }
-        return result.toString();
+        ByteBuffer out = ByteBuffer.allocate(GridFormat.PIPE.maxLength(dim));
+        format(out, GridFormat.PIPE);
+        return new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII);
     }
 
     /**
+     * The givens are applied before the clauses are generated: only the
+     * digits that no given rules out in a blank square get a variable, units
+     * in which a digit is already given get no constraint for it, and given
+     * squares get no clauses at all.
+     * 
      * @return a SAT problem corresponding to the puzzle, using variables with
      *         names of the form occupies(i,j,k) to indicate that the kth symbol
      *         occupies the entry in row i, column j
      */
     public Formula getProblem() {       
-        // make a starting formula
+        Formula.Encoding encoding = encodingFor(size);
+        
+        // Digits already given in each row, column and block
+        boolean [][] inRow = new boolean[size][size];
+        boolean [][] inColumn = new boolean[size][size];
+        boolean [][] inBlock = new boolean[size][size];
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                int k = grid[i*size + j];
+                if(k == -1)
+                    continue;
+                int b = block(i, j);
+                // two givens clash: no solution
+                if(inRow[i][k] || inColumn[j][k] || inBlock[b][k])
+                    return new Formula(new Clause());
+                inRow[i][k] = inColumn[j][k] = inBlock[b][k] = true;
+            }
+        }
+        
         Formula problemFormula = new Formula();
         
-        // Initialize variables in occupies
+        // Exactly one candidate digit per blank square
         for(int i = 0; i < size; i++){
             for(int j = 0; j < size; j++){
+                if(grid[i*size + j] != -1)
+                    continue;
+                List<Literal> digits = new ArrayList<Literal>();
                 for(int k = 0; k < size; k++){
-                    occupies[i][j][k] = new Variable(String.format("v%d_%d_%d" ,i,j,k));              
+                    if(isCandidate(i, j, k, inRow, inColumn, inBlock))
+                        digits.add(literals.pos(occupies(i, j, k)));
                 }
+                problemFormula = problemFormula.and(Formula.exactlyOne(digits, encoding));
             }
-        }        
-
-        // Formula which holds Clause which prevents multiple digits from occuring on the same square
-        Formula oneDigitPerSquare = new Formula();                 
+        }
+        
+        // In each row, each digit that is not given must go in exactly one
+        // blank square
         for(int i = 0; i < size; i++){
-            for(int j = 0; j < size; j++){
-                if(square[i][j] != -1){                
-                    // Solution must be consistent with starting grid        
-                    // For given numbers, add the corresponding variables as single literal clauses
-                    problemFormula = problemFormula.addClause(new Clause(PosLiteral.make(occupies[i][j][square[i][j]])));
-                } 
-                // At most one digit per square                
-                for(int k = 0; k < size; k++){
-                    Formula tempOneDigitPerSquare = new Formula();                    
-                    for(int m = 0; m < size; m++){                    
-                        if(m != k){
-                            // ~Vijk + ~Vijm
-                            Clause clause = new Clause(NegLiteral.make(occupies[i][j][k])).add(NegLiteral.make(occupies[i][j][m]));
-                            tempOneDigitPerSquare = tempOneDigitPerSquare.addClause(clause);
-                        }
-                    }                   
-                    
-                    // AND it with the other terms
-                    oneDigitPerSquare = oneDigitPerSquare.and(tempOneDigitPerSquare);
-                        
-                    
-                }                
+            for(int k = 0; k < size; k++){
+                if(inRow[i][k])
+                    continue;
+                List<Literal> row = new ArrayList<Literal>();
+                for(int j = 0; j < size; j++){
+                    if(isCandidate(i, j, k, inRow, inColumn, inBlock))
+                        row.add(literals.pos(occupies(i, j, k)));
+                }
+                problemFormula = problemFormula.and(Formula.exactlyOne(row, encoding));
             }
         }
         
+        // Same for columns
+        for(int j = 0; j < size; j++){
+            for(int k = 0; k < size; k++){
+                if(inColumn[j][k])
+                    continue;
+                List<Literal> column = new ArrayList<Literal>();
+                for(int i = 0; i < size; i++){
+                    if(isCandidate(i, j, k, inRow, inColumn, inBlock))
+                        column.add(literals.pos(occupies(i, j, k)));
+                }
+                problemFormula = problemFormula.and(Formula.exactlyOne(column, encoding));
+            }
+        }
+        
+        // In each block, each digit that is not given must appear at least
+        // once (at most once follows from the rows, as in getConstraints)
+        for(int b = 0; b < size; b++){
+            for(int k = 0; k < size; k++){
+                if(inBlock[b][k])
+                    continue;
+                Clause atLeastOnce = new Clause();
+                for(int l = 0; l < dim; l++){
+                    for(int m = 0; m < dim; m++){
+                        int i = dim*(b / dim) + l;
+                        int j = dim*(b % dim) + m;
+                        if(isCandidate(i, j, k, inRow, inColumn, inBlock))
+                            atLeastOnce = atLeastOnce.add(literals.pos(occupies(i, j, k)));
+                    }
+                }
+                problemFormula = problemFormula.addClause(atLeastOnce);
+            }
+        }
+        
+        return problemFormula;
+    }
+
+    /**
+     * Same problem as getProblem(), with the same clauses, generated in
+     * parallel straight into int clauses, without building any Clause or
+     * Formula (see ProblemEncoder). Much faster on large boards.
+     * 
+     * @return a new store holding the problem. The variables of its
+     *         candidates are the occupies variables of getProblem(), so
+     *         store.environment(model) can be passed to interpretSolution,
+     *         but decoding the model itself is faster.
+     */
+    public ClauseStore encodeProblem() {
+        return new ProblemEncoder(dim, grid, encodingFor(size)).encode(occupies());
+    }
+
+    /**
+     * @return index of the block containing row i, column j, numbering
+     *         blocks row by row
+     */
+    private int block(int i, int j) {
+        return dim*(i / dim) + j / dim;
+    }
+
+    /**
+     * @return true iff square (i,j) is blank and digit k is not given in its
+     *         row, column or block
+     */
+    private boolean isCandidate(int i, int j, int k, boolean[][] inRow,
+            boolean[][] inColumn, boolean[][] inBlock) {
+        return grid[i*size + j] == -1 && !inRow[i][k] && !inColumn[j][k] && !inBlock[block(i, j)][k];
+    }
+
+    /**
+     * Find the givens of this puzzle that are to blame when it has no solution.
+     * 
+     * @return null if this puzzle has a solution; otherwise a new Sudoku grid
+     *         containing only those givens of this puzzle that cannot be
+     *         completed together. The set is minimal: with any one of them
+     *         removed, the rest could be completed.
+     */
+    public Sudoku conflictingGivens() {
+        ConstraintTemplate template = ConstraintTemplate.of(dim);
+        Solver solver = template.newSolver();
+        int [] givens = getGivens(template);
+        if(solver.solve(givens))
+            return null;
+        int [] core = solver.minimizeCore(solver.getCore());
+        Arrays.sort(core);
+        
+        // Map the core back to the cells it came from
+        short [] conflicting = new short[size*size];
+        Arrays.fill(conflicting, (short) -1);
+        for(int c = 0; c < size*size; c++){
+            if(grid[c] != -1 && Arrays.binarySearch(core, template.literal(c, grid[c])) >= 0){
+                conflicting[c] = grid[c];
+            }
+        }
+        return new Sudoku(dim, conflicting);
+    }
+
+    /**
+     * Solve this puzzle with the SAT solver, on the rules of Sudoku compiled
+     * once for all puzzles of this dimension (see ConstraintTemplate), with
+     * the givens as assumptions. Nothing is encoded for the puzzle itself:
+     * it only costs a copy of the compiled solver, which pays off over
+     * getProblem() when many puzzles of one dimension are solved.
+     * 
+     * @return a new Sudoku grid containing a solution to the puzzle, with no
+     *         blank entries, or null if there is no solution.
+     */
+    public Sudoku solveCompiled() {
+        ConstraintTemplate template = ConstraintTemplate.of(dim);
+        Solver solver = template.newSolver();
+        if(!solver.solve(getGivens(template)))
+            return null;
         
-        // Combine the two Formulae
-        problemFormula = problemFormula.and(oneDigitPerSquare);
+        boolean [] model = solver.getModel();
+        short [] solved = grid.clone();
+        for(int c = 0; c < size*size; c++){
+            for(int k = 0; k < size && solved[c] == -1; k++){
+                if(model[template.literal(c, k) >> 1])
+                    solved[c] = (short) k;
+            }
+        }
+        return new Sudoku(dim, solved);
+    }
+
+    /**
+     * @return the int literal of the template for each given digit, cell by
+     *         cell
+     */
+    private int[] getGivens(ConstraintTemplate template) {
+        int count = 0;
+        for(short k : grid){
+            if(k != -1)
+                count++;
+        }
+        int [] givens = new int[count];
+        count = 0;
+        for(int c = 0; c < size*size; c++){
+            if(grid[c] != -1)
+                givens[count++] = template.literal(c, grid[c]);
+        }
+        return givens;
+    }
 
+    /**
+     * @return the rules of Sudoku for a grid of this size, without the givens:
+     *         each square holds exactly one digit, and each digit appears
+     *         exactly once in each row, column and block.
+     */
+    Formula getConstraints() {
+        // make a starting formula
+        Formula problemFormula = new Formula();
+        Formula.Encoding encoding = encodingFor(size);
+        
+        // Exactly one digit per square
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                List<Literal> digits = new ArrayList<Literal>();
+                for(int k = 0; k < size; k++){
+                    digits.add(literals.pos(occupies(i, j, k)));
+                }
+                problemFormula = problemFormula.and(Formula.exactlyOne(digits, encoding));
+            }
+        }
         
         // In each row, each digit must appear exactly once
-        Formula eachRowEachDigitOnce = new Formula();
         for(int i = 0; i < size; i++){
             for(int k = 0; k < size; k++){
-                Clause atLeastOnce = new Clause();                
+                List<Literal> row = new ArrayList<Literal>();
                 for(int j = 0; j < size; j++){
-                    
-                    // (Vi1k + Vi2k + Vi3k + ... + Vimk)
-                    atLeastOnce = atLeastOnce.add(PosLiteral.make(occupies[i][j][k]));
-                    
-                    
-                    for(int l = 0; l < size; l++){
-                        if(l != j){
-                            // (!Vilk + !Vijk)  for j != l
-                            Literal notVijk = NegLiteral.make(occupies[i][j][k]);
-                            Literal notVilk = NegLiteral.make(occupies[i][l][k]);
-                            Clause notVijkORnotVilk = (new Clause(notVijk)).add(notVilk);
-                            eachRowEachDigitOnce = eachRowEachDigitOnce.addClause(notVijkORnotVilk);
-                        }
-                    }
-                    
+                    row.add(literals.pos(occupies(i, j, k)));
                 }
-                
-                eachRowEachDigitOnce = eachRowEachDigitOnce.addClause(atLeastOnce);
+                problemFormula = problemFormula.and(Formula.exactlyOne(row, encoding));
             }
         }
-
-        // combine with final formula
-        problemFormula = problemFormula.and(eachRowEachDigitOnce);
         
         // In each column, each digit must appear exactly once
-        Formula eachColumnEachDigitOnce = new Formula();
         for(int j = 0; j < size; j++){
             for(int k = 0; k < size; k++){
-                Clause atLeastOnce = new Clause();                
+                List<Literal> column = new ArrayList<Literal>();
                 for(int i = 0; i < size; i++){
-                    
-                    // (V1jk + V2jk + V3jk + ... + Vnjk)
-                    atLeastOnce = atLeastOnce.add(PosLiteral.make(occupies[i][j][k]));
-                    
-                    
-                    for(int l = 0; l < size; l++){
-                        if(l != i){
-                            // (!Vijk + !Vljk)  for i != l
-                            Literal notVijk = NegLiteral.make(occupies[i][j][k]);
-                            Literal notVljk = NegLiteral.make(occupies[l][j][k]);
-                            Clause notVijkORnotVljk = (new Clause(notVijk)).add(notVljk);
-                            eachColumnEachDigitOnce = eachColumnEachDigitOnce.addClause(notVijkORnotVljk);
-                        }
-                    }
+                    column.add(literals.pos(occupies(i, j, k)));
                 }
-                
-                eachColumnEachDigitOnce = eachColumnEachDigitOnce.addClause(atLeastOnce);
+                problemFormula = problemFormula.and(Formula.exactlyOne(column, encoding));
             }
         }
-
-        // combine with final formula
-        problemFormula = problemFormula.and(eachColumnEachDigitOnce);
         
-        
-        // In each block, each digit must appear exactly once
-        Formula eachBlockEachDigitOnce = new Formula();
+        // In each block, each digit must appear at least once
+        // (at most once follows from the row constraints: each digit appears
+        // size times in all, once in each of the size blocks)
         for(int i = 0; i < dim; i++){
             for(int j = 0; j < dim; j++){
                 for(int k = 0; k < size; k++){
                     Clause atLeastOnce = new Clause();
                     for(int l = 0; l < dim; l++){
                         for(int m = 0; m < dim; m++){   
-                            atLeastOnce = atLeastOnce.add(PosLiteral.make(occupies[l + dim*i][m + dim*j][k]));         
+                            atLeastOnce = atLeastOnce.add(literals.pos(occupies(l + dim*i, m + dim*j, k)));         
                         }                    
                     }
-                    eachBlockEachDigitOnce = eachBlockEachDigitOnce.addClause(atLeastOnce);
+                    problemFormula = problemFormula.addClause(atLeastOnce);
                 }
             }
         }
+        
+        return problemFormula;
+    }
 
-        // combine with final formula
-        problemFormula = problemFormula.and(eachBlockEachDigitOnce);
+    /**
+     * Pick a cardinality encoding for units of the given size. Pairwise
+     * clauses grow with size^2 per unit, which is fine up to 9x9 boards;
+     * the sequential counter keeps unit constraints linear for mid-sized
+     * boards, and the product encoding needs the fewest auxiliary variables
+     * on the largest ones.
+     */
+    static Formula.Encoding encodingFor(int size) {
+        if(size <= 9)
+            return Formula.Encoding.PAIRWISE;
+        else if(size <= 25)
+            return Formula.Encoding.SEQUENTIAL;
+        else
+            return Formula.Encoding.PRODUCT;
+    }
+
+    /**
+     * Solve this puzzle directly, without the SAT encoding, by constraint
+     * propagation on candidate bitmasks with naked and hidden singles, and
+     * branching on the square with the fewest candidates. Much faster than
+     * solving getProblem() on typical puzzles.
+     * 
+     * @return a new Sudoku grid containing a solution to the puzzle, with no
+     *         blank entries, or null if there is no solution.
+     * @throws IllegalArgumentException
+     *             if dim > 8
+     */
+    public Sudoku solveDirect() {
+        if(dim > 8)
+            throw new IllegalArgumentException("Direct solving supports dim up to 8, not " + dim);
         
+        int [] solution = new DirectSolver(dim, grid).solve();
+        if(solution == null)
+            return null;
         
-        return problemFormula;
+        short [] solved = new short[size*size];
+        for(int c = 0; c < size*size; c++){
+            solved[c] = (short) solution[c];
+        }
+        return new Sudoku(dim, solved);
+    }
+
+    /**
+     * Solve many puzzles of the same dimension at once. Puzzles are taken 64
+     * at a time and propagated together, one bit of each machine word per
+     * puzzle, so that puzzles solved by naked and hidden singles alone cost
+     * a small fraction of solving them one by one; the others are finished
+     * as by solveDirect().
+     *
+     * @param dim
+     *            dimension of the puzzles. Requires 1 < dim <= 8
+     * @param grids
+     *            count puzzles of dim^4 squares each, one after the other,
+     *            each row by row, holding digits from 1 to dim^2 or 0 for
+     *            blanks. Each puzzle that has a solution is completed in
+     *            place; the others are left as they were.
+     * @param count
+     *            number of puzzles in grids
+     * @return solved[i] is true iff puzzle i has a solution
+     * @throws IllegalArgumentException
+     *             if dim > 8
+     */
+    public static boolean[] solveBatch(int dim, byte[] grids, int count) {
+        if(dim > 8)
+            throw new IllegalArgumentException("Batch solving supports dim up to 8, not " + dim);
+
+        BatchSolver batch = new BatchSolver(dim);
+        boolean [] solved = new boolean[count];
+        for(int first = 0; first < count; first += 64){
+            long lanes = batch.solve(grids, first, Math.min(64, count - first));
+            for(int l = 0; l < 64 && first + l < count; l++){
+                solved[first + l] = (lanes & (1L << l)) != 0;
+            }
+        }
+        return solved;
+    }
+
+    /**
+     * Solve many puzzles of the same dimension at once, as
+     * solveBatch(int, byte[], int).
+     *
+     * @param puzzles
+     *            digits or blanks of each puzzle, as for new Sudoku(dim,
+     *            puzzles[i]). Requires every puzzle to be dim^2 x dim^2
+     * @return solutions[i] is a new Sudoku grid containing a solution to
+     *         puzzles[i], or null if it has none
+     */
+    public static Sudoku[] solveBatch(int dim, int[][][] puzzles) {
+        int size = dim*dim;
+        byte [] grids = new byte[puzzles.length*size*size];
+        for(int n = 0; n < puzzles.length; n++){
+            for(int i = 0; i < size; i++){
+                for(int j = 0; j < size; j++){
+                    grids[(n*size + i)*size + j] = (byte) puzzles[n][i][j];
+                }
+            }
+        }
+        boolean [] solved = solveBatch(dim, grids, puzzles.length);
+
+        Sudoku [] solutions = new Sudoku[puzzles.length];
+        for(int n = 0; n < puzzles.length; n++){
+            if(!solved[n])
+                continue;
+            short [] grid = new short[size*size];
+            for(int c = 0; c < size*size; c++){
+                grid[c] = (short) (grids[n*size*size + c] - 1);
+            }
+            solutions[n] = new Sudoku(dim, grid);
+        }
+        return solutions;
+    }
+
+    /**
+     * Solve this puzzle as an exact cover problem with dancing links, without
+     * the SAT encoding.
+     * 
+     * @return a new Sudoku grid containing a solution to the puzzle, with no
+     *         blank entries, or null if there is no solution.
+     */
+    public Sudoku solveExactCover() {
+        int [][] placements = new int[size*size*size][];
+        DancingLinks links = exactCover(placements);
+        if(links.search(1) == 0)
+            return null;
+        
+        short [] solved = new short[size*size];
+        for(int r : links.getSolution()){
+            int [] p = placements[r];
+            solved[p[0]*size + p[1]] = (short) p[2];
+        }
+        return new Sudoku(dim, solved);
+    }
+
+    /**
+     * Count the solutions of this puzzle, with dancing links. A well-formed
+     * puzzle has exactly one: countSolutions(2) == 1.
+     * 
+     * @param limit
+     *            number of solutions after which to stop counting. Requires
+     *            limit > 0
+     * @return the number of solutions of this puzzle, or limit if there are
+     *         more
+     */
+    public int countSolutions(int limit) {
+        return exactCover(new int[size*size*size][]).search(limit);
+    }
+
+    /**
+     * Build the exact cover problem of this puzzle: one row per placement of
+     * a digit k in square (i,j) that the givens allow, covering the columns
+     * for square (i,j), for digit k in row i, in column j and in the block.
+     * 
+     * @param placements
+     *            set to {i, j, k} for each row, by row index
+     * @return the problem, ready to search
+     */
+    private DancingLinks exactCover(int[][] placements) {
+        int cells = size*size;
+        DancingLinks links = new DancingLinks(4*cells);
+        
+        // Digits given in each row, column and block, to skip placements
+        // that cannot be part of a solution
+        boolean [][] inRow = new boolean[size][size];
+        boolean [][] inColumn = new boolean[size][size];
+        boolean [][] inBlock = new boolean[size][size];
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                int k = grid[i*size + j];
+                if(k != -1)
+                    inRow[i][k] = inColumn[j][k] = inBlock[block(i, j)][k] = true;
+            }
+        }
+        
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                int b = block(i, j);
+                for(int k = 0; k < size; k++){
+                    if(grid[i*size + j] == -1 ? !isCandidate(i, j, k, inRow, inColumn, inBlock) : grid[i*size + j] != k)
+                        continue;
+                    int r = links.addRow(i*size + j, cells + i*size + k,
+                            2*cells + j*size + k, 3*cells + b*size + k);
+                    placements[r] = new int[] { i, j, k };
+                }
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Solve this puzzle with the SAT solver, adding an all-different
+     * constraint for each row, column and block to the clauses of
+     * getProblem(). Each constraint ranges over the blank squares of its unit
+     * and the digits missing from it, and the solver propagates it as a
+     * whole by bipartite matching. Hall sets (say, three squares of a row
+     * that can only hold the same three digits) are then found by
+     * propagation rather than by search, so hard puzzles need far fewer
+     * conflicts than with the clauses alone.
+     *
+     * @return a new Sudoku grid containing a solution to the puzzle, with no
+     *         blank entries, or null if there is no solution.
+     */
+    public Sudoku solveAllDifferent() {
+        boolean [][] inRow = new boolean[size][size];
+        boolean [][] inColumn = new boolean[size][size];
+        boolean [][] inBlock = new boolean[size][size];
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                int k = grid[i*size + j];
+                if(k == -1)
+                    continue;
+                int b = block(i, j);
+                if(inRow[i][k] || inColumn[j][k] || inBlock[b][k])
+                    return null;
+                inRow[i][k] = inColumn[j][k] = inBlock[b][k] = true;
+            }
+        }
+        // the clauses are streamed into the solver, without a store
+        ProblemEncoder encoder = new ProblemEncoder(dim, grid, encodingFor(size));
+
+        // lits[i][j][k] is the int literal of occupies(i, j, k), or -1 if
+        // k is not a candidate for square (i,j)
+        int [][][] lits = new int[size][size][size];
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                for(int k = 0; k < size; k++){
+                    lits[i][j][k] = encoder.literal(i*size + j, k);
+                }
+            }
+        }
+
+        Solver solver = new Solver(encoder.numVariables(), encoder.clauses());
+        for(int u = 0; u < 3*size; u++){
+            // the squares of unit u: row u, column u-size or block u-2*size
+            int [][] unit = new int[size][];
+            boolean [] given = u < size ? inRow[u] : u < 2*size ? inColumn[u - size] : inBlock[u - 2*size];
+            int blanks = 0;
+            for(int p = u*size; p < (u + 1)*size; p++){
+                int cell = geometry.units[p];
+                if(grid[cell] == -1)
+                    unit[blanks++] = lits[cell / size][cell % size];
+            }
+            // one column per digit missing from the unit
+            int [][] constraint = new int[blanks][blanks];
+            for(int c = 0; c < blanks; c++){
+                int d = 0;
+                for(int k = 0; k < size; k++){
+                    if(!given[k])
+                        constraint[c][d++] = unit[c][k];
+                }
+            }
+            solver.addAllDifferent(constraint);
+        }
+        if(!solver.solve())
+            return null;
+
+        return decode(encoder, solver.getModel());
     }
 
     /**
@@ -457,13 +854,16 @@ public class Sudoku {
      *         blank entries.
      */
     public Sudoku interpretSolution(Environment e) {
-        int [][] solution = new int[size][size];
+        // given squares have no variables in getProblem
+        short [] solution = grid.clone();
         
         for(int i = 0; i < size; i++){
             for(int j = 0; j < size; j++){
+                if(grid[i*size + j] != -1)
+                    continue;
                 for(int k = 0; k < size; k++){
-                    if( Bool.TRUE == e.get(occupies[i][j][k])){
-                        solution[i][j] = k+1;                            
+                    if( Bool.TRUE == e.get(occupies(i, j, k))){
+                        solution[i*size + j] = (short) k;                            
                     }                                        
                 }
             }
@@ -472,4 +872,36 @@ public class Sudoku {
         return new Sudoku(dim, solution);
     }
 
+    /**
+     * Interpret a model of encodeProblem() as a filled-in grid, reading the
+     * value of each candidate straight from the model by its variable id,
+     * without going through an Environment.
+     * 
+     * @param model
+     *            value of each variable of the store, by id, as returned by
+     *            Solver.getModel() or SATSolver.solveModel(). Requires that
+     *            model came from a solution to this.encodeProblem().
+     * @return a new Sudoku grid containing the solution to the puzzle, with no
+     *         blank entries.
+     */
+    public Sudoku interpretSolution(boolean[] model) {
+        return decode(new ProblemEncoder(dim, grid, encodingFor(size)), model);
+    }
+
+    /**
+     * @return this grid with each blank square filled in with the digit
+     *         whose candidate literal of encoder is true in model
+     */
+    private Sudoku decode(ProblemEncoder encoder, boolean[] model) {
+        short [] solution = grid.clone();
+        for(int c = 0; c < size*size; c++){
+            for(int k = 0; k < size && solution[c] == -1; k++){
+                int lit = encoder.literal(c, k);
+                if(lit != -1 && model[lit >> 1])
+                    solution[c] = (short) k;
+            }
+        }
+        return new Sudoku(dim, solution);
+    }
+
 }
@@ -1,11 +1,28 @@
 package sudoku;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 import org.junit.Test;
 
+import sat.ClauseStore;
+import sat.LocalSearch;
+import sat.SATSolver;
+import sat.Solver;
+import sat.env.Environment;
+import sat.formula.Formula;
 import sudoku.Sudoku.ParseException;
 
 
@@ -147,6 +164,484 @@ public class SudokuTest {
 
     }
     
+    @Test
+    public void conflictingGivensTest() {
+        // Square (0,3) can't hold 1 or 2 (row), 3 or 4 (column);
+        // the 2 in the bottom left corner plays no part in the conflict
+        int [][] input = {{1,2,0,0},
+                          {0,0,0,0},
+                          {0,0,0,3},
+                          {2,0,0,4}};
+        Sudoku sudoku = new Sudoku(2,input);
+        String expected = "1|2| | \n"+
+                          " | | | \n"+
+                          " | | |3\n"+
+                          " | | |4\n";
+        
+        assertEquals(expected,sudoku.conflictingGivens().toString());
+    }
+    
+    @Test
+    public void conflictingGivensSolvableTest() {
+        // A puzzle with a solution has no conflicting givens
+        int [][] input = {{0,2,3,4},
+                          {3,4,1,0},
+                          {2,1,4,0},
+                          {0,3,2,1}};
+        assertNull(new Sudoku(2,input).conflictingGivens());
+    }
+    
+    @Test
+    public void problemReducedByGivensTest() {
+        // Only square (1,3) is blank, and 2 is its only candidate: the
+        // problem is the single clause [v1_3_1]
+        int [][] input = {{1,2,3,4},
+                          {3,4,1,0},
+                          {2,1,4,3},
+                          {4,3,2,1}};
+        Sudoku sudoku = new Sudoku(2,input);
+        Formula problem = sudoku.getProblem();
+
+        assertEquals(1, ClauseStore.fromFormula(problem).numClauses());
+        assertEquals(1, ClauseStore.fromFormula(problem).numVariables());
+        String expected = "1|2|3|4\n"+
+                          "3|4|1|2\n"+
+                          "2|1|4|3\n"+
+                          "4|3|2|1\n";
+        assertEquals(expected, sudoku.interpretSolution(SATSolver.solve(problem)).toString());
+    }
+
+    @Test
+    public void problemWithoutCandidateTest() {
+        // Square (0,3) has no candidate left, so the problem is unsatisfiable
+        int [][] input = {{1,2,0,0},
+                          {0,0,0,0},
+                          {0,0,0,3},
+                          {0,0,0,4}};
+        assertNull(SATSolver.solve(new Sudoku(2,input).getProblem()));
+    }
+
+    @Test
+    public void solveDirectTest() {
+        // Same puzzle as partiallyFilled9x9SudokuConstructorTest: the direct
+        // engine must find the same (unique) solution as the SAT solver
+        int [][] input = {{0,6,0,1,0,4,0,5,0},
+                          {0,0,8,3,0,5,6,0,0},
+                          {2,0,0,0,0,0,0,0,1},
+                          {8,0,0,4,0,7,0,0,6},
+                          {0,0,6,0,0,0,3,0,0},
+                          {7,0,0,9,0,1,0,0,4},
+                          {5,0,0,0,0,0,0,0,2},
+                          {0,0,7,2,0,6,9,0,0},
+                          {0,4,0,5,0,8,0,7,0}};
+        Sudoku sudoku = new Sudoku(3,input);
+        Sudoku expected = sudoku.interpretSolution(SATSolver.solve(sudoku.getProblem()));
+
+        assertEquals(expected.toString(), sudoku.solveDirect().toString());
+    }
+
+    @Test
+    public void solveDirectUnsolvableTest() {
+        // Same puzzle as conflictingGivensTest
+        int [][] input = {{1,2,0,0},
+                          {0,0,0,0},
+                          {0,0,0,3},
+                          {2,0,0,4}};
+        assertNull(new Sudoku(2,input).solveDirect());
+    }
+
+    @Test
+    public void solveDirectEmptyTest() {
+        // Empty 25x25 grid: new Sudoku checks the rules in checkRep, so it
+        // only remains to check there are no blanks
+        Sudoku solution = new Sudoku(5).solveDirect();
+
+        assertFalse(solution.toString().contains("  "));
+    }
+
+    @Test
+    public void maskKernelsAgreeTest() {
+        // The vector kernel must compute the same masks as the scalar one,
+        // including on the lanes left over at the end: 25x25 has 625 cells
+        // and 75 units. Without the incubator module it cannot load, and
+        // the test is reported as skipped; with it, a missing kernel means
+        // src-vector was left out of the build
+        MaskKernel vector = DirectSolver.vectorKernel();
+        if(vector == null){
+            assertFalse("jdk.incubator.vector is loaded, but VectorMaskKernel is not: compile src-vector too",
+                    ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+            assumeTrue("vector kernel not checked: compile src-vector and run with --add-modules jdk.incubator.vector",
+                    false);
+        }
+        MaskKernel scalar = new ScalarMaskKernel();
+        Random random = new Random(5);
+        int size = 25;
+        long [] used = new long[3*size];
+        long [] blank = new long[size*size];
+        int [] rowOf = new int[size*size];
+        int [] columnOf = new int[size*size];
+        int [] blockOf = new int[size*size];
+        int [] byPosition = new int[3*size*size];
+        for(int u = 0; u < 3*size; u++)
+            used[u] = random.nextLong() & ((1L << size) - 1);
+        for(int c = 0; c < size*size; c++){
+            rowOf[c] = random.nextInt(3*size);
+            columnOf[c] = random.nextInt(3*size);
+            blockOf[c] = random.nextInt(3*size);
+            blank[c] = random.nextBoolean() ? (1L << size) - 1 : 0;
+        }
+        for(int p = 0; p < 3*size*size; p++)
+            byPosition[p] = random.nextInt(size*size);
+
+        long [][] results = new long[6][];
+        for(int r = 0; r < 2; r++){
+            MaskKernel kernel = r == 0 ? scalar : vector;
+            long [] cands = new long[size*size];
+            long [] once = new long[3*size];
+            long [] twice = new long[3*size];
+            kernel.candidates(used, rowOf, columnOf, blockOf, blank, cands, size*size);
+            kernel.summarize(cands, byPosition, 3*size, size, once, twice);
+            results[3*r] = cands;
+            results[3*r + 1] = once;
+            results[3*r + 2] = twice;
+        }
+        for(int k = 0; k < 3; k++)
+            assertTrue(Arrays.equals(results[k], results[3 + k]));
+    }
+
+    @Test
+    public void solveExactCoverTest() {
+        // Same puzzle as partiallyFilled9x9SudokuConstructorTest, which has
+        // a unique solution
+        int [][] input = {{0,6,0,1,0,4,0,5,0},
+                          {0,0,8,3,0,5,6,0,0},
+                          {2,0,0,0,0,0,0,0,1},
+                          {8,0,0,4,0,7,0,0,6},
+                          {0,0,6,0,0,0,3,0,0},
+                          {7,0,0,9,0,1,0,0,4},
+                          {5,0,0,0,0,0,0,0,2},
+                          {0,0,7,2,0,6,9,0,0},
+                          {0,4,0,5,0,8,0,7,0}};
+        Sudoku sudoku = new Sudoku(3,input);
+
+        assertEquals(sudoku.solveDirect().toString(), sudoku.solveExactCover().toString());
+        assertEquals(1, sudoku.countSolutions(2));
+    }
+
+    @Test
+    public void countSolutionsTest() {
+        // There are 288 4x4 grids; the puzzle of conflictingGivensTest has none
+        assertEquals(288, new Sudoku(2).countSolutions(1000));
+        assertEquals(10, new Sudoku(2).countSolutions(10));
+        int [][] input = {{1,2,0,0},
+                          {0,0,0,0},
+                          {0,0,0,3},
+                          {2,0,0,4}};
+        assertEquals(0, new Sudoku(2,input).countSolutions(1));
+        assertNull(new Sudoku(2,input).solveExactCover());
+    }
+
+    @Test
+    public void solveAllDifferentTest() {
+        // Same puzzle as solveExactCoverTest
+        int [][] input = {{0,6,0,1,0,4,0,5,0},
+                          {0,0,8,3,0,5,6,0,0},
+                          {2,0,0,0,0,0,0,0,1},
+                          {8,0,0,4,0,7,0,0,6},
+                          {0,0,6,0,0,0,3,0,0},
+                          {7,0,0,9,0,1,0,0,4},
+                          {5,0,0,0,0,0,0,0,2},
+                          {0,0,7,2,0,6,9,0,0},
+                          {0,4,0,5,0,8,0,7,0}};
+        Sudoku sudoku = new Sudoku(3,input);
+
+        assertEquals(sudoku.solveExactCover().toString(), sudoku.solveAllDifferent().toString());
+        assertFalse(new Sudoku(4).solveAllDifferent().toString().contains("  "));
+    }
+
+    @Test
+    public void solveAllDifferentUnsolvableTest() {
+        // Same puzzle as conflictingGivensTest: no two givens clash, but
+        // square (0,3) has no digit left
+        int [][] input = {{1,2,0,0},
+                          {0,0,0,0},
+                          {0,0,0,3},
+                          {2,0,0,4}};
+        assertNull(new Sudoku(2,input).solveAllDifferent());
+    }
+
+    @Test
+    public void solveCompiledTest() {
+        // Same puzzle as solveExactCoverTest, solved twice from the same
+        // template, which solving must leave as it was
+        int [][] input = {{0,6,0,1,0,4,0,5,0},
+                          {0,0,8,3,0,5,6,0,0},
+                          {2,0,0,0,0,0,0,0,1},
+                          {8,0,0,4,0,7,0,0,6},
+                          {0,0,6,0,0,0,3,0,0},
+                          {7,0,0,9,0,1,0,0,4},
+                          {5,0,0,0,0,0,0,0,2},
+                          {0,0,7,2,0,6,9,0,0},
+                          {0,4,0,5,0,8,0,7,0}};
+        Sudoku sudoku = new Sudoku(3,input);
+        String expected = sudoku.solveExactCover().toString();
+
+        assertEquals(expected, sudoku.solveCompiled().toString());
+        assertFalse(new Sudoku(3).solveCompiled().toString().contains(" "));
+        assertEquals(expected, sudoku.solveCompiled().toString());
+    }
+
+    @Test
+    public void solveCompiledUnsolvableTest() {
+        // Same puzzle as conflictingGivensTest
+        int [][] input = {{1,2,0,0},
+                          {0,0,0,0},
+                          {0,0,0,3},
+                          {2,0,0,4}};
+        assertNull(new Sudoku(2,input).solveCompiled());
+    }
+
+    @Test
+    public void encodeProblemTest() {
+        // Same puzzle as solveExactCoverTest: the int clauses are those of
+        // getProblem, and decode to the same solution
+        int [][] input = {{0,6,0,1,0,4,0,5,0},
+                          {0,0,8,3,0,5,6,0,0},
+                          {2,0,0,0,0,0,0,0,1},
+                          {8,0,0,4,0,7,0,0,6},
+                          {0,0,6,0,0,0,3,0,0},
+                          {7,0,0,9,0,1,0,0,4},
+                          {5,0,0,0,0,0,0,0,2},
+                          {0,0,7,2,0,6,9,0,0},
+                          {0,4,0,5,0,8,0,7,0}};
+        Sudoku sudoku = new Sudoku(3,input);
+        ClauseStore store = sudoku.encodeProblem();
+        ClauseStore expected = ClauseStore.fromFormula(sudoku.getProblem());
+
+        assertEquals(expected.numClauses(), store.numClauses());
+        assertEquals(expected.numVariables(), store.numVariables());
+        Solver solver = new Solver(store);
+        assertTrue(solver.solve());
+        assertEquals(sudoku.solveExactCover().toString(),
+                sudoku.interpretSolution(store.environment(solver.getModel())).toString());
+        assertEquals(sudoku.solveExactCover().toString(), sudoku.interpretSolution(solver.getModel()).toString());
+        assertEquals(sudoku.solveExactCover().toString(),
+                sudoku.interpretSolution(SATSolver.solveModel(store)).toString());
+
+        // an empty 16x16 board is encoded in parallel, with sequential
+        // counters
+        Sudoku empty = new Sudoku(4);
+        assertEquals(ClauseStore.fromFormula(empty.getProblem()).numClauses(), empty.encodeProblem().numClauses());
+    }
+
+    @Test
+    public void streamProblemTest() {
+        // the streamed clauses are those of encodeProblem, over the same
+        // variables and in the same order, however the stream is split (the
+        // store drops repeated clauses, such as the unit clause of a cell
+        // with one candidate, which is also its digit's only place)
+        int [][] input = {{0,6,0,1,0,4,0,5,0},
+                          {0,0,8,3,0,5,6,0,0},
+                          {2,0,0,0,0,0,0,0,1},
+                          {8,0,0,4,0,7,0,0,6},
+                          {0,0,6,0,0,0,3,0,0},
+                          {7,0,0,9,0,1,0,0,4},
+                          {5,0,0,0,0,0,0,0,2},
+                          {0,0,7,2,0,6,9,0,0},
+                          {0,4,0,5,0,8,0,7,0}};
+        short [] givens = new short[81];
+        for(int c = 0; c < 81; c++)
+            givens[c] = (short) (input[c / 9][c % 9] - 1);
+        // the empty boards use sequential counters and the product encoding
+        short [] empty16 = new short[256];
+        short [] empty36 = new short[1296];
+        Arrays.fill(empty16, (short) -1);
+        Arrays.fill(empty36, (short) -1);
+        for(short [] grid : new short[][] { givens, empty16, empty36 }){
+            int dim = (int) Math.round(Math.sqrt(Math.sqrt(grid.length)));
+            ProblemEncoder encoder = new ProblemEncoder(dim, grid, Sudoku.encodingFor(dim*dim));
+            ClauseStore store = encoder.encode(Geometry.of(dim).occupies());
+            assertEquals(store.numVariables(), encoder.numVariables());
+
+            final ClauseStore streamed = new ClauseStore();
+            for(int v = 0; v < store.numVariables(); v++)
+                streamed.variable(store.getVariable(v));
+            Consumer<int[]> add = new Consumer<int[]>() {
+                public void accept(int[] clause) {
+                    streamed.addClause(clause);
+                }
+            };
+            Spliterator<int[]> clauses = encoder.clauses();
+            Spliterator<int[]> prefix = clauses.trySplit();
+            assertNotNull(prefix);
+            prefix.forEachRemaining(add);
+            clauses.forEachRemaining(add);
+            assertEquals(store.numClauses(), streamed.numClauses());
+            for(int i = 0; i < store.numClauses(); i++)
+                assertArrayEquals(store.clause(i), streamed.clause(i));
+        }
+    }
+
+    @Test
+    public void solveBatchTest() {
+        // Same puzzle as solveExactCoverTest, solved by singles alone
+        int [][] easy = {{0,6,0,1,0,4,0,5,0},
+                         {0,0,8,3,0,5,6,0,0},
+                         {2,0,0,0,0,0,0,0,1},
+                         {8,0,0,4,0,7,0,0,6},
+                         {0,0,6,0,0,0,3,0,0},
+                         {7,0,0,9,0,1,0,0,4},
+                         {5,0,0,0,0,0,0,0,2},
+                         {0,0,7,2,0,6,9,0,0},
+                         {0,4,0,5,0,8,0,7,0}};
+        // an empty grid needs branching, and clash has two 5s in a row
+        int [][] empty = new int[9][9];
+        int [][] clash = new int[9][9];
+        clash[0][0] = clash[0][8] = 5;
+        // more than one batch of 64, and a last one that is not full
+        int [][][] puzzles = new int[150][][];
+        for(int n = 0; n < puzzles.length; n++)
+            puzzles[n] = n % 3 == 0 ? easy : n % 3 == 1 ? empty : clash;
+        Sudoku [] solutions = Sudoku.solveBatch(3, puzzles);
+
+        String expected = new Sudoku(3, easy).solveExactCover().toString();
+        for(int n = 0; n < puzzles.length; n++){
+            if(n % 3 == 0)
+                assertEquals(expected, solutions[n].toString());
+            else if(n % 3 == 1)
+                assertFalse(solutions[n].toString().contains(" "));
+            else
+                assertNull(solutions[n]);
+        }
+        assertEquals(5, puzzles[2][0][0]);
+        assertEquals(0, puzzles[2][0][1]);
+    }
+
+    @Test
+    public void batchPipelineTest() throws IOException, ParseException {
+        // Same puzzle as solveExactCoverTest, with '.' and '0' for blanks,
+        // and one with two 5s in its first row
+        String easy = ".6.1.4.5...83.56..2.......18..4.7..6..6...3..7..9.1..45.......2..72.69...4.5.8.7.";
+        String zeros = easy.replace('.', '0');
+        String clash = "55" + easy.substring(2);
+        String solution = new Sudoku(3, new int[][] {
+                {0,6,0,1,0,4,0,5,0}, {0,0,8,3,0,5,6,0,0}, {2,0,0,0,0,0,0,0,1},
+                {8,0,0,4,0,7,0,0,6}, {0,0,6,0,0,0,3,0,0}, {7,0,0,9,0,1,0,0,4},
+                {5,0,0,0,0,0,0,0,2}, {0,0,7,2,0,6,9,0,0}, {0,4,0,5,0,8,0,7,0}})
+                .solveExactCover().toString().replaceAll("[|\n]", "");
+
+        // more than one chunk of 64 puzzles, with room for only one chunk
+        // in flight so that the reader has to wait for the writer
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for(int n = 0; n < 200; n++){
+            String puzzle = n % 3 == 0 ? easy : n % 3 == 1 ? zeros : clash;
+            input.append(puzzle).append(n == 100 ? "\n\n" : "\n");
+            expected.append(puzzle).append(',').append(n % 3 == 2 ? "none" : solution).append('\n');
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchPipeline.Report report = BatchPipeline.run(channel(input.toString()), Channels.newChannel(output), 3, 1);
+
+        assertEquals(expected.toString(), output.toString("US-ASCII"));
+        assertEquals(200, report.getPuzzles());
+        assertEquals(134, report.getSolved());
+        assertTrue(report.getLatency(0.5) <= report.getLatency(0.99));
+    }
+
+    @Test(expected = ParseException.class)
+    public void batchPipelineBadLineTest() throws IOException, ParseException {
+        // a 4x4 puzzle in a file of 9x9 puzzles
+        String easy = ".6.1.4.5...83.56..2.......18..4.7..6..6...3..7..9.1..45.......2..72.69...4.5.8.7.";
+        BatchPipeline.run(channel(easy + "\n1.3.......2.4...\n"),
+                Channels.newChannel(new ByteArrayOutputStream()), 2, 2);
+    }
+
+    // a channel reading the characters of text
+    private static ReadableByteChannel channel(String text) {
+        return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void gridFormatTest() throws ParseException {
+        // the same 4x4 puzzle in each format, read from one buffer in turn,
+        // with Windows line ends and a comment in the SDK one
+        String pipe = " |2|3|4\n3|4|1| \n2|1|4| \n |3|2|1\n";
+        String line = ".234341.214..321\n";
+        String sdk = "# a 4x4 puzzle\r\n.234\r\n341.\r\n214.\r\n.321\r\n";
+        ByteBuffer in = ByteBuffer.wrap((pipe + line + sdk).getBytes(StandardCharsets.US_ASCII));
+        Sudoku fromPipe = Sudoku.parse(2, in, GridFormat.PIPE);
+        Sudoku fromLine = Sudoku.parse(2, in, GridFormat.LINE);
+        Sudoku fromSdk = Sudoku.parse(2, in, GridFormat.SDK);
+        assertFalse(in.hasRemaining());
+        assertEquals(pipe, fromPipe.toString());
+        assertEquals(pipe, fromLine.toString());
+        assertEquals(pipe, fromSdk.toString());
+
+        // written back to a buffer that is reused
+        ByteBuffer out = ByteBuffer.allocate(64);
+        for(GridFormat format : GridFormat.values()){
+            out.clear();
+            fromPipe.format(out, format);
+            assertEquals(format.maxLength(2), out.position());
+            out.flip();
+            assertEquals(fromPipe.toString(), Sudoku.parse(2, out, format).toString());
+        }
+        out.clear();
+        fromPipe.format(out, GridFormat.LINE);
+        assertEquals(line, new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+
+        // two-digit numbers are right-aligned, and "0" is a blank too
+        String wide = new Sudoku(4).toString().replaceFirst("  ", " 0").replaceFirst("  ", "16");
+        Sudoku sixteen = Sudoku.parse(4, ByteBuffer.wrap(wide.getBytes(StandardCharsets.US_ASCII)),
+                GridFormat.PIPE);
+        assertEquals(new Sudoku(4).toString().replaceFirst("  \\|  ", "  |16"), sixteen.toString());
+    }
+
+    @Test
+    public void gridFormatBareReturnTest() throws IOException, ParseException {
+        // the last line of a buffer may end in a lone "\r", as when a file
+        // of Windows lines is cut short
+        String pipe = " |2|3|4\n3|4|1| \n2|1|4| \n |3|2|1\n";
+        String windows = pipe.replace("\n", "\r\n");
+        String[] texts = { windows.substring(0, windows.length() - 1), ".234341.214..321\r",
+                "# a 4x4 puzzle\r\n.234\r\n341.\r\n214.\r\n.321\r" };
+        for(int f = 0; f < 3; f++){
+            ByteBuffer in = ByteBuffer.wrap(texts[f].getBytes(StandardCharsets.US_ASCII));
+            assertEquals(pipe, Sudoku.parse(2, in, GridFormat.values()[f]).toString());
+            assertFalse(in.hasRemaining());
+        }
+
+        // and so may the last puzzle of a batch, and a "\r" may be the
+        // last byte of one read from the input, with its "\n" in the next
+        String easy = ".6.1.4.5...83.56..2.......18..4.7..6..6...3..7..9.1..45.......2..72.69...4.5.8.7.";
+        StringBuilder input = new StringBuilder();
+        for(int p = 0; p < 49; p++)
+            input.append(' ');
+        input.append('\n');
+        for(int n = 0; n < 800; n++)
+            input.append(easy).append(n < 799 ? "\r\n" : "\r");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchPipeline.Report report = BatchPipeline.run(channel(input.toString()), Channels.newChannel(output), 2, 2);
+        assertEquals(800, report.getPuzzles());
+        assertEquals(800, report.getSolved());
+    }
+
+    @Test(expected=ParseException.class)
+    public void gridFormatBadDigitTest() throws ParseException {
+        Sudoku.parse(2, ByteBuffer.wrap("1|2|3|4\n3|4|1|5\n".getBytes(StandardCharsets.US_ASCII)), GridFormat.PIPE);
+    }
+
+    @Test
+    public void localSearchEmptySudokuTest() {
+        // Fill an empty grid by local search; interpretSolution checks the
+        // rules through checkRep, so it only remains to check there are no blanks
+        Sudoku sudoku = new Sudoku(3);
+        Environment e = LocalSearch.solve(sudoku.getProblem(), 2013, 10000000);
+        
+        assertNotNull(e);
+        assertFalse(sudoku.interpretSolution(e).toString().contains(" "));
+    }
+    
     @Test
     public void fileInput16x16SodokuTest(){
         // Test fromFile method with the 16x16 file.         